@@ -1,23 +1,26 @@
 package amazons;
 
-import static java.lang.Math.*;
-
-import static amazons.Piece.BLACK;
 import static amazons.Piece.WHITE;
 
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** A Player that automatically generates moves.
  *  @author Ben Chen
  */
 class AI extends Player {
 
-    /** A position magnitude indicating a win (for white if positive, black
-     *  if negative). */
-    private static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
-    /** A magnitude greater than a normal value. */
-    private static final int INFTY = Integer.MAX_VALUE;
+    /** Default size of the transposition table, in megabytes. */
+    static final int DEFAULT_TABLE_SIZE = 16;
+
+    /** Default limits, in milliseconds, on the time for one move and on
+     *  the total time for all my moves in a game.  Two AIs playing each
+     *  other within a 90-second game budget (as in testing/playTwo) fit
+     *  with room to spare. */
+    static final long DEFAULT_MOVE_TIME = 5000, DEFAULT_GAME_TIME = 40000;
 
     /** A new AI with no piece or controller (intended to produce
      *  a template). */
@@ -28,168 +31,751 @@ class AI extends Player {
     /** A new AI playing PIECE under control of CONTROLLER. */
     AI(Piece piece, Controller controller) {
         super(piece, controller);
+        _tableSize = DEFAULT_TABLE_SIZE;
+        _moveTime = DEFAULT_MOVE_TIME;
+        _gameTime = DEFAULT_GAME_TIME;
+        _threads = 1;
+        _evaluator = Evaluator.MOBILITY;
+    }
+
+    /** A new AI playing PIECE under control of CONTROLLER, with the same
+     *  settings as MODEL. */
+    private AI(Piece piece, Controller controller, AI model) {
+        this(piece, controller);
+        _tableSize = model._tableSize;
+        _moveTime = model._moveTime;
+        _gameTime = model._gameTime;
+        _fixedDepth = model._fixedDepth;
+        _threads = model._threads;
+        _evaluator = model._evaluator;
+        _splitPly = model._splitPly;
+        _beam = model._beam;
+        _reductions = model._reductions;
+        _book = model._book;
+        _ponder = model._ponder;
+        _reportStats = model._reportStats;
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        return new AI(piece, controller, this);
+    }
+
+    /** Use a transposition table of about MEGABYTES megabytes in AIs
+     *  created from this one hereafter, or none if MEGABYTES is 0. */
+    void setTableSize(int megabytes) {
+        if (megabytes < 0) {
+            throw Utils.error("table size must not be negative");
+        }
+        _tableSize = megabytes;
+    }
+
+    /** Limit AIs created from this one hereafter to MOVETIME milliseconds
+     *  per move and GAMETIME milliseconds for all their moves in a game. */
+    void setTimeLimits(long moveTime, long gameTime) {
+        if (moveTime <= 0 || gameTime <= 0) {
+            throw Utils.error("time limits must be positive");
+        }
+        _moveTime = moveTime;
+        _gameTime = gameTime;
+    }
+
+    /** Make AIs created from this one hereafter search exactly DEPTH
+     *  plies, ignoring time limits, or use the time limits if DEPTH is
+     *  0. */
+    void setDepth(int depth) {
+        if (depth < 0 || depth > TranspositionTable.MAX_DEPTH) {
+            throw Utils.error("depth must be between 0 and %d",
+                              TranspositionTable.MAX_DEPTH);
+        }
+        _fixedDepth = depth;
+    }
+
+    /** Make AIs created from this one hereafter search with THREADS
+     *  threads, splitting the moves at the root of the search among
+     *  them. */
+    void setThreads(int threads) {
+        if (threads < 1) {
+            throw Utils.error("need at least one thread");
+        }
+        _threads = threads;
+    }
+
+    /** Make AIs created from this one hereafter score positions with the
+     *  kind of Evaluator named NAME (see Evaluator.create). */
+    void setEvaluator(String name) {
+        Evaluator.create(name);
+        _evaluator = name;
+    }
+
+    /** Make AIs created from this one hereafter search queen moves and
+     *  spear throws as separate plies iff SPLIT. */
+    void setSplitPly(boolean split) {
+        _splitPly = split;
+    }
+
+    /** Make AIs created from this one hereafter search selectively,
+     *  searching at each node below the root with D plies left only the
+     *  WIDTHS[D - 1] moves that look best (or WIDTHS[WIDTHS.length - 1],
+     *  if D is greater), or all moves if that is 0; all moves are
+     *  searched if WIDTHS is empty.  See Searcher.setBeam. */
+    void setBeam(int... widths) {
+        for (int width : widths) {
+            if (width < 0) {
+                throw Utils.error("beam widths must not be negative");
+            }
+        }
+        _beam = widths.clone();
+    }
+
+    /** Return the beam widths (see setBeam) listed in LIST, separated by
+     *  commas or colons. */
+    static int[] beamWidths(String list) {
+        String[] items = list.trim().split("\\s*[,:]\\s*");
+        int[] widths = new int[items.length];
+        try {
+            for (int i = 0; i < items.length; i += 1) {
+                widths[i] = Integer.parseInt(items[i]);
+            }
+        } catch (NumberFormatException excp) {
+            throw Utils.error("bad beam widths: %s", list);
+        }
+        return widths;
+    }
+
+    /** Make AIs created from this one hereafter search late moves to
+     *  reduced depth first iff REDUCE (see Searcher.findMove). */
+    void setReductions(boolean reduce) {
+        _reductions = reduce;
+    }
+
+    /** Make AIs created from this one hereafter play moves from BOOK,
+     *  when it has the position, instead of searching, or always search
+     *  if BOOK is null. */
+    void setBook(OpeningBook book) {
+        _book = book;
+    }
+
+    /** Make AIs created from this one hereafter ponder iff PONDER:
+     *  after choosing a move, search the position after the reply they
+     *  predict on a background thread until the opponent moves. */
+    void setPonder(boolean ponder) {
+        _ponder = ponder;
+    }
+
+    /** Make AIs created from this one hereafter report a summary of the
+     *  statistics of each search (see SearchStats) as a note iff
+     *  REPORT. */
+    void setReportStats(boolean report) {
+        _reportStats = report;
+    }
+
+    @Override
+    long nodes() {
+        return _nodes;
+    }
+
+    @Override
+    String statistics() {
+        return _stats.nodes() == 0 ? null : _stats.toString();
     }
 
     @Override
     String myMove() {
-        Move move = findMove();
-        _controller.reportMove(move);
-        return move.toString();
+        int move = findMove();
+        _controller.reportMove(Move.mv(move));
+        if (_reportStats && _stats.nodes() > 0) {
+            _controller.reportNote("%s", _stats.summary());
+        }
+        if (_ponder) {
+            startPondering(move);
+        }
+        return Move.toString(move);
     }
 
     /** Return a move for me from the current position, assuming there
-     *  is a move. */
-    private Move findMove() {
-        Board b = new Board(board());
-        if (_myPiece == WHITE) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
-        } else {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
-        }
-        return _lastFoundMove;
-    }
-
-    /** The move found by the last call to one of the ...FindMove methods
-     *  below. */
-    private Move _lastFoundMove;
-
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _lastFoundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound. */
-    private int findMove(Board board, int depth, boolean saveMove, int sense,
-                         int alpha, int beta) {
-        if (depth == 0 || board.winner() != null) {
-            return staticScore(board);
-        }
-        Move bestm = null;
-        Iterator<Move> moves = board.legalMoves();
-        HashSet<Move> moveorg = orgMoves(moves);
-        if (sense == 1) {
-            int bestVal = Integer.MIN_VALUE;
-            for (Move m: moveorg) {
-                Board c = new Board(board);
-                c.makeMove(m);
-                int temp = bestVal;
-                bestVal = Math.max(bestVal,
-                        findMove(c, depth - 1,
-                                false, 0 - sense, alpha, beta));
-                if (temp < bestVal) {
-                    bestm = m;
-                }
-                if (bestVal > beta) {
-                    if (saveMove) {
-                        _lastFoundMove = bestm;
-                    }
-                    return bestVal;
+     *  is a move.  Takes the move from my opening book if it has the
+     *  position, or from my RegionSolver once the amazons have been
+     *  walled off from each other and it can solve the regions mine
+     *  occupy in part of the time allotted to this move.  Otherwise,
+     *  searches to successively greater depths until that time runs
+     *  out, and returns the best move from the deepest search that
+     *  finished, unless I have already searched this position for long
+     *  enough while pondering.  The move is returned packed (see
+     *  Move.pack). */
+    private int findMove() {
+        long start = System.nanoTime();
+        Board board = new Board(snapshot());
+        boolean ponderHit = stopPondering(board);
+        _stats.clear();
+        if (_book != null) {
+            int bookMove = _book.probe(board.key(), _controller::randInt);
+            if (bookMove != 0 && board.isLegal(bookMove)) {
+                chargeTime(start);
+                return bookMove;
+            }
+        }
+        if (_searchers == null) {
+            setUpSearch();
+        }
+        allocateTime(board, start);
+        if (_endgame.decompose(board)) {
+            int endgameMove =
+                _endgame.bestMove(_myPiece, _fixedDepth > 0 ? Long.MAX_VALUE
+                                  : start + _softLimit / SOLVER_SHARE);
+            if (endgameMove != 0) {
+                chargeTime(start);
+                return endgameMove;
+            }
+        }
+        if (ponderHit && _ponderMove != 0
+            && (Math.abs(_completedValue) == Searcher.WINNING_VALUE
+                || (_fixedDepth > 0 ? _completedDepth >= _fixedDepth
+                    : _ponderTime >= _softLimit / 2))) {
+            chargeTime(start);
+            return _ponderMove;
+        }
+        int best = deepen(board, start, false);
+        for (Searcher searcher : _searchers) {
+            _stats.add(searcher.stats());
+        }
+        _stats.addTime(System.nanoTime() - start);
+        _nodes += _stats.nodes();
+        chargeTime(start);
+        return best;
+    }
+
+    /** Analyze POSITION, which is not modified, as an analysis engine
+     *  would: search it to my fixed depth, or else until my per-move
+     *  time limit, ignoring my opening book, my game time, and
+     *  pondering, and return what the deepest finished search found.
+     *  Once the amazons are walled off from each other, returns instead
+     *  the exact result from my RegionSolver, if it can solve all the
+     *  regions in part of that time.  My transposition table is kept
+     *  from one call to the next, so related positions are best
+     *  analyzed by the same AI. */
+    Analysis analyze(Board position) {
+        long start = System.nanoTime();
+        _stats.clear();
+        if (position.winner() != null) {
+            return new Analysis(0, position.winner() == position.turn()
+                                ? Searcher.WINNING_VALUE
+                                : -Searcher.WINNING_VALUE, 0, 0,
+                                new int[0]);
+        }
+        if (_searchers == null) {
+            setUpSearch();
+        }
+        _softLimit = moveLimit(_moveTime);
+        _deadline = start + _softLimit;
+        if (_endgame.decompose(position)) {
+            Piece turn = position.turn();
+            long deadline = _fixedDepth > 0 ? Long.MAX_VALUE
+                : start + _softLimit / SOLVER_SHARE;
+            Piece winner = _endgame.winner(turn, deadline);
+            int move = winner == null ? 0 : _endgame.bestMove(turn, deadline);
+            if (move != 0) {
+                return new Analysis(move, winner == turn
+                                    ? Searcher.WINNING_VALUE
+                                    : -Searcher.WINNING_VALUE, 0, 0,
+                                    new int[] { move });
+            }
+        }
+        Board root = new Board(position);
+        int best = deepen(root, start, false);
+        for (Searcher searcher : _searchers) {
+            _stats.add(searcher.stats());
+        }
+        _stats.addTime(System.nanoTime() - start);
+        _nodes += _stats.nodes();
+        int sense = root.turn() == WHITE ? 1 : -1;
+        return new Analysis(best, sense * _completedValue, _completedDepth,
+                            _stats.nodes(), _completedPv);
+    }
+
+    /** The result of analyzing a position (see analyze). */
+    static final class Analysis {
+        /** The result of a search that chose MOVE (packed, or 0 for
+         *  none), valued at VALUE for the side to move, after finishing
+         *  an iteration to DEPTH plies and visiting NODES nodes, with
+         *  principal variation PV (packed moves, starting with MOVE). */
+        Analysis(int move, int value, int depth, long nodes, int[] pv) {
+            this.move = move;
+            this.value = value;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.pv = pv;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            result.append(String.format("bestmove %s score %d depth %d"
+                                        + " nodes %d",
+                                        move == 0 ? "none"
+                                        : Move.toString(move),
+                                        value, depth, nodes));
+            if (pv.length > 0) {
+                result.append(" pv");
+                for (int move : pv) {
+                    result.append(' ').append(Move.toString(move));
                 }
-                alpha = Math.max(alpha, bestVal);
             }
-            if (saveMove) {
-                _lastFoundMove = bestm;
+            return result.toString();
+        }
+
+        /** The best move found, packed, or 0 if there is none. */
+        final int move;
+        /** Its value, positive if it favors the side to move. */
+        final int value;
+        /** The depth of the deepest finished iteration. */
+        final int depth;
+        /** The nodes visited. */
+        final long nodes;
+        /** The principal variation: the moves expected to be played,
+         *  starting with the best move, as far as the search saw them.
+         *  Not to be modified. */
+        final int[] pv;
+    }
+
+    /** Search ROOT, the position at time START (from System.nanoTime),
+     *  to successively greater depths, and return the best move from the
+     *  deepest search that finished (0 if none did), setting
+     *  _completedDepth, _completedValue, and _completedPv to its depth,
+     *  value, and principal variation, and (unless PONDERING) recording
+     *  each finished iteration in _stats.  Each iteration after the
+     *  second searches with an aspiration window of ASPIRATION either
+     *  side of the value found two iterations before (values swing
+     *  between odd and even depths, since each side's last move looks
+     *  better than it is), and searches again with that side of the
+     *  window opened if the value falls outside it.
+     *  Stops at my fixed depth, if any, or when a win or loss is found,
+     *  or when _stop is set, or when the time allotted by allocateTime
+     *  runs out.  If PONDERING, the time allotted is instead my
+     *  per-move limit, and a _stop already set is honored.  Only one
+     *  deepen may run at a time. */
+    private int deepen(Board root, long start, boolean pondering) {
+        if (_table != null) {
+            _table.newSearch();
+        }
+        for (Searcher searcher : _searchers) {
+            searcher.setRoot(root);
+        }
+        int sense = root.turn() == WHITE ? 1 : -1;
+        int maxDepth = _fixedDepth > 0 ? _fixedDepth
+            : Math.min(root.emptySquares(), TranspositionTable.MAX_DEPTH);
+        long deadline = pondering ? start + _moveTime * MILLIS : _deadline;
+        int best = 0, value = 0, previous = 0;
+        _completedDepth = 0;
+        _completedPv = new int[0];
+        if (!pondering) {
+            _stop.set(false);
+        }
+        long nodes = 0;
+        for (int depth = 1; depth <= maxDepth; depth += 1) {
+            for (Searcher searcher : _searchers) {
+                searcher.setDeadline(deadline,
+                                     depth > 1 && _fixedDepth == 0);
+            }
+            long iterationStart = System.nanoTime();
+            int lo = -Searcher.INFTY, hi = Searcher.INFTY;
+            if (depth > 2) {
+                lo = previous - ASPIRATION;
+                hi = previous + ASPIRATION;
             }
-            return bestVal;
-        } else {
-            int bestVal = Integer.MAX_VALUE;
-            for (Move m: moveorg) {
-                Board c = new Board(board);
-                c.makeMove(m);
-                int temp = bestVal;
-                bestVal = Math.min(bestVal,
-                        findMove(c, depth - 1,
-                                false, 0 - sense, alpha, beta));
-                if (temp > bestVal) {
-                    bestm = m;
+            previous = value;
+            int first = best;
+            while (true) {
+                value = searchRoot(root, depth, sense, first, lo, hi);
+                if (_stop.get() || value > lo && value < hi) {
+                    break;
+                } else if (value <= lo) {
+                    lo = -Searcher.INFTY;
+                } else {
+                    hi = Searcher.INFTY;
+                    first = _bestMove;
                 }
-                if (bestVal < alpha) {
-                    if (saveMove) {
-                        _lastFoundMove = bestm;
-                    }
-                    return bestVal;
+            }
+            if (_stop.get()) {
+                break;
+            }
+            if (!pondering) {
+                long total = 0;
+                for (Searcher searcher : _searchers) {
+                    total += searcher.nodes();
                 }
-                beta = Math.min(beta, bestVal);
+                _stats.iteration(depth, total - nodes,
+                                 System.nanoTime() - iterationStart);
+                nodes = total;
             }
-            if (saveMove) {
-                _lastFoundMove = bestm;
+            best = _bestMove;
+            _completedDepth = depth;
+            _completedValue = sense * value;
+            _completedPv = _pv;
+            if (Math.abs(value) == Searcher.WINNING_VALUE
+                || (!pondering && _fixedDepth == 0
+                    && System.nanoTime() - start >= _softLimit / 2)) {
+                break;
             }
-            return bestVal;
         }
+        return best;
     }
 
-    /**@param mv iterator of all moves current piece can make.
-     * @return a list of all moves that have at least one move
-     * (spear or to) blocking the enemy. Otherwise the rest of
-     * the moves. */
-    private HashSet<Move> orgMoves(Iterator<Move> mv) {
-        HashSet<Square> opp = new HashSet<>();
-        HashSet<Square> oppqueen = new HashSet<>();
-        HashSet<Move> oneblock = new HashSet<>();
-        HashSet<Move> noblock = new HashSet<>();
-        for (int i = 0; i <= 9; i += 1) {
-            for (int j = 0; j <= 9; j += 1) {
-                if (board().get(Square.sq(i, j))
-                        .equals(myPiece().opponent())) {
-                    opp.add(Square.sq(i, j));
-                }
-            }
+    /** Start pondering, after I play MOVE in the current position: on a
+     *  background thread, predict the opponent's reply (the best move
+     *  for it in my transposition table, or else the first in my
+     *  searchers' order) and search the resulting position as for deepen
+     *  until stopPondering is called.  Does nothing if the game would be
+     *  over.  The Controller's board is only read (through a snapshot),
+     *  and only here. */
+    private void startPondering(int move) {
+        Board position = new Board(snapshot());
+        position.makeMove(move);
+        if (position.winner() != null) {
+            return;
         }
-        for (Square sq: opp) {
-            Iterator<Square> iter =
-                    board().reachableFrom(sq, null);
-            while (iter.hasNext()) {
-                oppqueen.add(iter.next());
+        if (_searchers == null) {
+            setUpSearch();
+        }
+        _ponderThread = new Thread(() -> {
+            long start = System.nanoTime();
+            Searcher main = _searchers[0];
+            main.setRoot(position);
+            main.orderMoves(1, _table == null ? 0
+                            : TranspositionTable.move(
+                                _table.probe(position.key())));
+            position.makeMove(main.moves(1)[0]);
+            _ponderKey = position.key();
+            if (position.winner() == null) {
+                _ponderMove = deepen(position, start, true);
+                _ponderTime = System.nanoTime() - start;
             }
+        }, "ponder");
+        _ponderThread.setDaemon(true);
+        _ponderKey = 0;
+        _ponderMove = 0;
+        _stop.set(false);
+        _ponderThread.start();
+    }
+
+    /** Stop pondering, if I am, and wait for it to finish.  Return true
+     *  iff it was on the same position as BOARD (in which case
+     *  _ponderMove, _ponderTime, _completedDepth, and _completedValue
+     *  describe what it found). */
+    private boolean stopPondering(Board board) {
+        if (_ponderThread == null) {
+            return false;
         }
-        while (mv.hasNext()) {
-            Move curr = mv.next();
-            if (oppqueen.contains(curr.to())
-                    || oppqueen.contains(curr.spear())) {
-                oneblock.add(curr);
-            } else {
-                noblock.add(curr);
+        _stop.set(true);
+        boolean interrupted = false;
+        while (_ponderThread.isAlive()) {
+            try {
+                _ponderThread.join();
+            } catch (InterruptedException excp) {
+                interrupted = true;
             }
         }
-        if (oneblock.size() > 0) {
-            return oneblock;
-        } else {
-            return noblock;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
+        _ponderThread = null;
+        _stop.set(false);
+        return _ponderKey == board.key();
     }
 
-    /** Return a heuristically determined maximum search depth
-     *  based on characteristics of BOARD. */
-    private int maxDepth(Board board) {
-        int N = board.numMoves();
-        int cut = 11 * 2;
-        return 1 + N / cut;
+    /** Stop pondering, and shut down my thread pool, if I have one.  My
+     *  searchers and transposition table are dropped with it, and set up
+     *  afresh if I search again. */
+    @Override
+    void close() {
+        if (_ponderThread != null) {
+            stopPondering(board());
+        }
+        if (_pool != null) {
+            _pool.shutdown();
+            _pool = null;
+        }
+        _searchers = null;
+        _table = null;
     }
 
-    /** Return a heuristic value for BOARD. */
-    private int staticScore(Board board) {
-        Piece winner = board.winner();
-        if (winner == BLACK) {
-            return -WINNING_VALUE;
-        } else if (winner == WHITE) {
-            return WINNING_VALUE;
+    /** Create my transposition table, searchers, and (if I use more than
+     *  one thread) thread pool. */
+    private void setUpSearch() {
+        if (_tableSize > 0) {
+            _table = new TranspositionTable(_tableSize);
+        }
+        _searchers = new Searcher[_threads];
+        for (int i = 0; i < _threads; i += 1) {
+            _searchers[i] =
+                new Searcher(_table, Evaluator.create(_evaluator), _stop);
+            _searchers[i].setSplitPly(_splitPly);
+            _searchers[i].setBeam(_beam);
+            _searchers[i].setReductions(_reductions);
+        }
+        if (_threads > 1) {
+            _pool = new ForkJoinPool(_threads - 1);
+        }
+    }
+
+    /** Search ROOT (my searchers' root) to DEPTH for the side indicated
+     *  by SENSE, with the aspiration window LO .. HI (in that side's
+     *  terms: values times SENSE), and return the root's value in those
+     *  terms, as for Searcher.findMove.  If the value is strictly inside
+     *  the window, it is exact, and _bestMove is set to the first move
+     *  (in search order) having that value, and _pv to its principal
+     *  variation.  Otherwise it is only a bound, and _bestMove is the
+     *  move that failed high, or unchanged if the search failed low.
+     *  FIRST (a packed move, or 0) is searched first.  Returns with
+     *  _stop set if the search is abandoned.
+     *
+     *  The first move is searched alone, with the whole window.  The
+     *  rest are handed out one at a time to my searchers, which run in
+     *  parallel if there are several.  Each is searched first with a
+     *  null window at the best value so far, which only shows whether
+     *  it is better, and then, if it is (and the value is not already
+     *  exact, as it is at DEPTH 1), with the window from there up to
+     *  HI.  When searching in parallel, the null window is just below
+     *  the best value so far, so that a move that ties it also gets an
+     *  exact value, since it may have been searched before the move
+     *  it ties; so the result and the move chosen are the same
+     *  whatever the number of threads. */
+    private int searchRoot(Board root, int depth, int sense, int first,
+                           int lo, int hi) {
+        Searcher main = _searchers[0];
+        int n = main.orderMoves(depth, first);
+        if (n > _rootMoves.length) {
+            _rootMoves = new int[n];
+            _rootValues = new int[n];
+            _rootPvs = new int[n][];
+        }
+        System.arraycopy(main.moves(depth), 0, _rootMoves, 0, n);
+        Arrays.fill(_rootValues, 0, n, -Searcher.INFTY);
+        Arrays.fill(_rootPvs, 0, n, null);
+        _rootValues[0] = rootValue(main, 0, depth, sense, lo, hi);
+        if (_stop.get()) {
+            return 0;
+        }
+        _rootBound.set(_rootValues[0]);
+        _nextRootMove.set(1);
+        if (_pool == null) {
+            searchRootMoves(main, depth, sense, n, lo, hi);
+        } else {
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[_threads - 1];
+            for (int i = 1; i < _threads; i += 1) {
+                Searcher helper = _searchers[i];
+                tasks[i - 1] = _pool.submit(
+                    () -> searchRootMoves(helper, depth, sense, n, lo, hi));
+            }
+            searchRootMoves(main, depth, sense, n, lo, hi);
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+        if (_stop.get()) {
+            return 0;
+        }
+        int best = 0;
+        for (int i = 1; i < n; i += 1) {
+            if (_rootValues[i] > _rootValues[best]) {
+                best = i;
+            }
+        }
+        int value = _rootValues[best];
+        if (value > lo) {
+            _bestMove = _rootMoves[best];
+            _pv = _rootPvs[best];
+        }
+        if (_table != null) {
+            int bound = value >= hi ? TranspositionTable.LOWER
+                : value <= lo ? TranspositionTable.UPPER
+                : TranspositionTable.EXACT;
+            if (sense == -1 && bound != TranspositionTable.EXACT) {
+                bound = TranspositionTable.LOWER + TranspositionTable.UPPER
+                    - bound;
+            }
+            _table.store(root.key(), depth, bound, sense * value,
+                         value > lo ? _bestMove : 0);
+        }
+        return value;
+    }
+
+    /** Using SEARCHER, search root moves to DEPTH for the side indicated
+     *  by SENSE within the window LO .. HI (in that side's terms), taking
+     *  the next unsearched move among the first N in _rootMoves until
+     *  there are none left, the search is abandoned, or a move has
+     *  reached HI (so that the root fails high). */
+    private void searchRootMoves(Searcher searcher, int depth, int sense,
+                                 int n, int lo, int hi) {
+        for (int i = _nextRootMove.getAndIncrement(); i < n;
+             i = _nextRootMove.getAndIncrement()) {
+            int bound = Math.max(_rootBound.get(), lo);
+            if (bound >= hi) {
+                return;
+            }
+            int alpha = _pool == null ? bound : bound - 1;
+            int value = rootValue(searcher, i, depth, sense, alpha,
+                                  alpha + 1);
+            if (value > alpha && depth > 1 && !searcher.stopped()) {
+                value = rootValue(searcher, i, depth, sense, alpha, hi);
+            }
+            if (searcher.stopped()) {
+                return;
+            }
+            _rootValues[i] = value;
+            _rootBound.accumulateAndGet(value, Math::max);
         }
-        Iterator<Move> legalself = board.legalMoves(WHITE);
-        Iterator<Move> legalopp = board.legalMoves(BLACK);
-        int self = 0, opp = 0;
-        while (legalself.hasNext()) {
-            self += 1;
-            legalself.next();
+    }
+
+    /** Using SEARCHER, search root move number I in _rootMoves to DEPTH
+     *  for the side indicated by SENSE, with the window ALPHA .. BETA in
+     *  that side's terms, and return its value in those terms.  If the
+     *  value is exact (inside the window, or at DEPTH 1 always), record
+     *  the move's principal variation in _rootPvs[I]. */
+    private int rootValue(Searcher searcher, int i, int depth, int sense,
+                          int alpha, int beta) {
+        int value =
+            sense == 1
+            ? searcher.searchMove(_rootMoves[i], depth - 1, -1, alpha, beta)
+            : -searcher.searchMove(_rootMoves[i], depth - 1, 1, -beta,
+                                   -alpha);
+        if (depth == 1 || value > alpha && value < beta) {
+            _rootPvs[i] = searcher.principalVariation();
         }
-        while (legalopp.hasNext()) {
-            opp += 1;
-            legalopp.next();
+        return value;
+    }
+
+    /** Set the soft and hard time limits for a search starting at time
+     *  START (from System.nanoTime) from position BOARD.  The soft limit
+     *  is my share of the game time (see Player.timeShare), with half
+     *  again as much for middlegame moves, when the board is starting to
+     *  close up.  No further iteration is started after half the soft
+     *  limit has passed, and the search is abandoned at the hard
+     *  limit. */
+    private void allocateTime(Board board, long start) {
+        long share = timeShare(board, _moveTime, _gameTime);
+        if (board.numMoves() >= OPENING_MOVES
+            && board.emptySquares() > ENDGAME_EMPTY) {
+            share += share / 2;
         }
-        return self - opp;
+        long moveLimit = moveLimit(_moveTime);
+        _softLimit = Math.min(share, moveLimit);
+        _deadline = start + Math.min(Math.min(3 * _softLimit, moveLimit),
+                                     timeLeft(_gameTime) / 2);
     }
+
+    /** Half the width of the aspiration window, in the units of
+     *  Evaluator.score. */
+    private static final int ASPIRATION = 50;
+
+    /** The RegionSolver may use 1/SOLVER_SHARE of the soft time limit
+     *  for a move; the search gets whatever it leaves. */
+    private static final int SOLVER_SHARE = 4;
+
+    /** Number of moves (both sides) in the opening, and the number of
+     *  empty squares at which the endgame starts, for time allocation. */
+    private static final int OPENING_MOVES = 10, ENDGAME_EMPTY = 40;
+
+    /** My searchers, one per thread, created when first needed. */
+    private Searcher[] _searchers;
+
+    /** Threads that run my searchers other than the first, or null if I
+     *  use only one thread or have been closed. */
+    private ForkJoinPool _pool;
+
+    /** Set when the current search is to be abandoned. */
+    private final AtomicBoolean _stop = new AtomicBoolean();
+
+    /** The moves at the root of the current iteration, in search order,
+     *  and their values (exact, or bounds that rule them out). */
+    private int[] _rootMoves = new int[Board.MAX_MOVES],
+        _rootValues = new int[Board.MAX_MOVES];
+
+    /** Index in _rootMoves of the next move to hand out to a searcher. */
+    private final AtomicInteger _nextRootMove = new AtomicInteger();
+
+    /** The best value found so far at the root of the current
+     *  iteration. */
+    private final AtomicInteger _rootBound = new AtomicInteger();
+
+    /** The principal variations of the root moves whose values the
+     *  current iteration found exactly (null for the others). */
+    private int[][] _rootPvs = new int[Board.MAX_MOVES][];
+
+    /** The best move found by the last completed searchRoot, and its
+     *  principal variation. */
+    private int _bestMove;
+    /** The principal variation of _bestMove (see
+     *  Searcher.principalVariation). */
+    private int[] _pv;
+
+    /** Size of my transposition table in megabytes, or 0 for none. */
+    private int _tableSize;
+
+    /** My transposition table, created when first needed, or null if
+     *  there is none. */
+    private TranspositionTable _table;
+
+    /** Per-move and per-game time limits, in milliseconds. */
+    private long _moveTime, _gameTime;
+
+    /** Fixed search depth, or 0 to search for as long as time allows. */
+    private int _fixedDepth;
+
+    /** Number of threads to search with. */
+    private int _threads;
+
+    /** The name of the kind of Evaluator my searchers use. */
+    private String _evaluator;
+
+    /** True iff my searchers treat queen moves and spear throws as
+     *  separate plies. */
+    private boolean _splitPly;
+
+    /** The beam widths by remaining depth (see setBeam). */
+    private int[] _beam = new int[0];
+
+    /** True iff late moves are searched to reduced depth first. */
+    private boolean _reductions;
+
+    /** My opening book, or null if I have none. */
+    private OpeningBook _book;
+
+    /** True iff I ponder on my opponent's time. */
+    private boolean _ponder;
+
+    /** The thread pondering, or null if none has been started since I
+     *  last moved. */
+    private Thread _ponderThread;
+
+    /** The key of the position being pondered (0 until the reply has
+     *  been predicted), and the best move found for it. */
+    private long _ponderKey;
+    /** The best move found by pondering (0 if none). */
+    private int _ponderMove;
+    /** Nanoseconds spent pondering. */
+    private long _ponderTime;
+
+    /** The depth and value of the last iteration that deepen finished. */
+    private int _completedDepth, _completedValue;
+    /** The principal variation found by that iteration. */
+    private int[] _completedPv = new int[0];
+
+    /** Solves the endgame once the amazons are walled off. */
+    private final RegionSolver _endgame = new RegionSolver();
+
+    /** Total positions searched for my moves (not counting pondering). */
+    private long _nodes;
+
+    /** True iff I report the statistics of each search. */
+    private boolean _reportStats;
+
+    /** The statistics of my last search, merged from my searchers' once
+     *  it is done. */
+    private final SearchStats _stats = new SearchStats();
+
+    /** The soft limit on the current search, in nanoseconds (no new
+     *  iteration starts after half of it), and the System.nanoTime value
+     *  at which the search stops outright. */
+    private long _softLimit, _deadline;
 }
@@ -0,0 +1,90 @@
+package amazons;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/** Offline analysis of many positions in one run.  Positions, one per
+ *  line in the notation of Board.notation, are analyzed by AI.analyze
+ *  on a pool of worker threads, each with its own AI (and so its own
+ *  transposition table and searchers) and Board, made from a template
+ *  when the worker first needs it and closed when the batch is done.
+ *  Results are printed one line per position, in input order, as soon
+ *  as they and all those before them are done, so output streams while
+ *  later positions are analyzed and only a few positions per worker are
+ *  held at once.
+ *  @author Ben Chen
+ */
+final class BatchAnalysis {
+
+    /** Not instantiable. */
+    private BatchAnalysis() {
+    }
+
+    /** Analyze each position read from IN with an AI made from TEMPLATE
+     *  on WORKERS threads, and print a line for each on OUT, in order:
+     *  the result (see AI.Analysis), or "error" and a message if the
+     *  line is not a position.  Blank lines and comments (from #) are
+     *  skipped.  Return the number of positions analyzed. */
+    static int run(BufferedReader in, PrintStream out, AI template,
+                   int workers) throws IOException {
+        if (workers < 1) {
+            throw Utils.error("need at least one worker");
+        }
+        ConcurrentLinkedQueue<AI> created = new ConcurrentLinkedQueue<>();
+        ThreadLocal<AI> analyzers = ThreadLocal.withInitial(() -> {
+            AI analyzer = (AI) template.create(null, null);
+            created.add(analyzer);
+            return analyzer;
+        });
+        ThreadLocal<Board> boards = ThreadLocal.withInitial(Board::new);
+        ArrayDeque<ForkJoinTask<String>> pending = new ArrayDeque<>();
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        int analyzed = 0;
+        try {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                String position = line.replaceFirst("#.*", "").trim();
+                if (position.isEmpty()) {
+                    continue;
+                }
+                pending.add(pool.submit(
+                    () -> analyze(position, analyzers.get(), boards.get())));
+                analyzed += 1;
+                if (pending.size() >= WINDOW * workers) {
+                    out.println(pending.remove().join());
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.println(pending.remove().join());
+            }
+        } finally {
+            pool.shutdownNow();
+            for (AI analyzer : created) {
+                analyzer.close();
+            }
+        }
+        out.flush();
+        return analyzed;
+    }
+
+    /** Return the line reporting ANALYZER's analysis of POSITION (in
+     *  the notation of Board.notation), set up on BOARD. */
+    private static String analyze(String position, AI analyzer,
+                                  Board board) {
+        try {
+            board.setPosition(position);
+        } catch (IllegalArgumentException excp) {
+            return "error " + excp.getMessage();
+        }
+        return analyzer.analyze(board).toString();
+    }
+
+    /** The number of positions per worker that may be submitted but not
+     *  yet printed. */
+    private static final int WINDOW = 4;
+}
@@ -1,14 +1,15 @@
 package amazons;
 
-import java.util.ArrayDeque;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Collections;
 import static amazons.Piece.EMPTY;
 import static amazons.Piece.SPEAR;
 import static amazons.Piece.WHITE;
 import static amazons.Piece.BLACK;
+import static amazons.Utils.error;
 
 
 /** The state of an Amazons Game.
@@ -19,6 +20,11 @@ class Board {
     /** The number of squares on a side of the board. */
     static final int SIZE = 10;
 
+    /** An upper bound on the number of legal moves for a side with four
+     *  amazons: each reaches at most 35 squares, and from each of those
+     *  can throw to at most 35. */
+    static final int MAX_MOVES = 4 * 35 * 35;
+
     /** Initializes a game board with SIZE squares on a side in the
      *  initial position. */
     Board() {
@@ -30,30 +36,75 @@ class Board {
         copy(model);
     }
 
-    /** Copies MODEL into me. */
+    /** Initializes a board in the position of SNAPSHOT, with its moves
+     *  as my history (see copy(BoardSnapshot)). */
+    Board(BoardSnapshot snapshot) {
+        copy(snapshot);
+    }
+
+    /** Copies MODEL into me.  Only the moves MODEL has made since its
+     *  last snapshot are copied; those before are shared. */
     void copy(Board model) {
-        init();
         _turn = model.turn();
         _winner = model.winner();
-        for (Square sq: _allsquares.keySet()) {
-            put(model.get(sq), sq);
-        }
+        System.arraycopy(model._bits, 0, _bits, 0, _bits.length);
+        System.arraycopy(model._emptyNeighbors, 0, _emptyNeighbors, 0,
+                         _emptyNeighbors.length);
+        _key = model._key;
+        _queenFrom = model._queenFrom;
+        _queenTo = model._queenTo;
         _numMoves = model._numMoves;
-        _moves = model._moves.clone();
+        _base = model._base;
+        _baseMoves = model._baseMoves;
+        System.arraycopy(model._moves, _baseMoves, _moves, _baseMoves,
+                         _numMoves - _baseMoves);
     }
 
-    /** Clears the board to the initial position. */
-    void init() {
-        _turn = WHITE;
-        _winner = null;
-        _numMoves = 0;
-        _moves = new ArrayDeque<>();
-        _allsquares = new HashMap<>();
-        for (int i = 0; i <= 9; i += 1) {
-            for (int j = 0; j <= 9; j += 1) {
-                _allsquares.put(Square.sq(i, j), EMPTY);
+    /** Sets me to the position of SNAPSHOT.  My history is SNAPSHOT's,
+     *  which is referred to, not copied, so this takes the same time
+     *  however many moves have been made; the moves can still be read
+     *  with move and undone with undo. */
+    void copy(BoardSnapshot snapshot) {
+        for (int w = 0; w < 2; w += 1) {
+            _bits[w] = snapshot.pieces(WHITE, w);
+            _bits[2 + w] = snapshot.pieces(BLACK, w);
+            _bits[4 + w] = snapshot.pieces(SPEAR, w);
+        }
+        countEmptyNeighbors();
+        _turn = snapshot.turn();
+        _winner = snapshot.winner();
+        _key = snapshot.key();
+        _queenFrom = _queenTo = -1;
+        _base = snapshot;
+        _numMoves = _baseMoves = snapshot.numMoves();
+    }
+
+    /** Return an immutable snapshot of the current position, which must
+     *  have no spear pending.  Snapshots of successive positions share
+     *  their history (see BoardSnapshot), so taking one after each move
+     *  costs only the moves made since the last. */
+    BoardSnapshot snapshot() {
+        assert !spearPending();
+        if (_base == null || _numMoves > _baseMoves) {
+            Board scratch = new Board(this);
+            while (scratch._numMoves > _baseMoves) {
+                scratch.undo();
+            }
+            BoardSnapshot result =
+                _base == null ? new BoardSnapshot(scratch, null, 0) : _base;
+            for (int k = _baseMoves; k < _numMoves; k += 1) {
+                scratch.makeMove(_moves[k]);
+                result = new BoardSnapshot(scratch, result, _moves[k]);
             }
+            _base = result;
+            _baseMoves = _numMoves;
         }
+        return _base;
+    }
+
+    /** Clears the board to the initial position. */
+    void init() {
+        clear();
         put(WHITE, Square.sq(0, 3));
         put(WHITE, Square.sq(9, 3));
         put(WHITE, Square.sq(3, 0));
@@ -64,6 +115,136 @@ class Board {
         put(BLACK, Square.sq(0, 6));
     }
 
+    /** Set me to the position described by NOTATION (see notation),
+     *  with no moves made.  Throws IllegalArgumentException, leaving me
+     *  unchanged, if NOTATION is malformed. */
+    void setPosition(String notation) {
+        String[] fields = notation.trim().split("\\s+");
+        if (fields.length != 2
+            || !fields[1].equals("w") && !fields[1].equals("b")) {
+            throw error("bad position: %s", notation);
+        }
+        String[] rows = fields[0].split("/", -1);
+        if (rows.length != SIZE) {
+            throw error("position needs %d rows: %s", SIZE, notation);
+        }
+        Piece[] contents = new Piece[SIZE * SIZE];
+        Arrays.fill(contents, EMPTY);
+        for (int r = 0; r < SIZE; r += 1) {
+            int row = SIZE - 1 - r, col = 0;
+            String text = rows[r];
+            for (int i = 0; i < text.length(); i += 1) {
+                char c = text.charAt(i);
+                if (Character.isDigit(c)) {
+                    int run = c - '0';
+                    while (i + 1 < text.length()
+                           && Character.isDigit(text.charAt(i + 1))) {
+                        i += 1;
+                        run = Math.min(10 * run + text.charAt(i) - '0',
+                                       SIZE + 1);
+                    }
+                    if (run == 0 || col + run > SIZE) {
+                        throw error("bad row %d: %s", row + 1, text);
+                    }
+                    col += run;
+                } else {
+                    Piece p = c == 'W' ? WHITE : c == 'B' ? BLACK
+                        : c == 'S' ? SPEAR : null;
+                    if (p == null || col >= SIZE) {
+                        throw error("bad row %d: %s", row + 1, text);
+                    }
+                    contents[Square.sq(col, row).index()] = p;
+                    col += 1;
+                }
+            }
+            if (col != SIZE) {
+                throw error("bad row %d: %s", row + 1, text);
+            }
+        }
+        clear();
+        for (int k = 0; k < contents.length; k += 1) {
+            if (contents[k] != EMPTY) {
+                put(contents[k], Square.sq(k));
+            }
+        }
+        setTurn(fields[1].equals("w") ? WHITE : BLACK);
+        if (!hasMove(_turn)) {
+            _winner = _turn.opponent();
+        }
+    }
+
+    /** Return the position in a compact notation: the rows from 10 down
+     *  to 1, separated by "/", each giving its squares from column a to
+     *  column j as W (white amazon), B (black amazon), S (spear), or a
+     *  number counting consecutive empty squares; then a space and the
+     *  side to move, w or b.  The initial position, for example, is
+     *  3B2B3/10/10/B8B/10/10/W8W/10/10/3W2W3 w.  Moves made are not
+     *  included.  There must be no spear pending. */
+    String notation() {
+        assert !spearPending();
+        StringBuilder result = new StringBuilder();
+        for (int row = SIZE - 1; row >= 0; row -= 1) {
+            int empty = 0;
+            for (int col = 0; col < SIZE; col += 1) {
+                Piece p = get(col, row);
+                if (p == EMPTY) {
+                    empty += 1;
+                } else {
+                    if (empty > 0) {
+                        result.append(empty);
+                    }
+                    empty = 0;
+                    result.append(p);
+                }
+            }
+            if (empty > 0) {
+                result.append(empty);
+            }
+            if (row > 0) {
+                result.append('/');
+            }
+        }
+        return result.append(_turn == WHITE ? " w" : " b").toString();
+    }
+
+    /** Clear the board to one with no pieces, White to move, and no
+     *  moves made. */
+    private void clear() {
+        _turn = WHITE;
+        _winner = null;
+        _numMoves = _baseMoves = 0;
+        _base = null;
+        _queenFrom = _queenTo = -1;
+        Arrays.fill(_bits, 0L);
+        countEmptyNeighbors();
+        _key = 0;
+    }
+
+    /** Set _emptyNeighbors from the pieces on the board. */
+    private void countEmptyNeighbors() {
+        for (int k = 0; k < _emptyNeighbors.length; k += 1) {
+            _emptyNeighbors[k] = 0;
+            for (int dir = 0; dir < 8; dir += 1) {
+                int[] ray = Square.ray(k, dir);
+                if (ray.length > 0 && !occupied(ray[0])) {
+                    _emptyNeighbors[k] += 1;
+                }
+            }
+        }
+    }
+
+    /** Copy the moves of my last snapshot's history into _moves and
+     *  forget the snapshot, which no longer matches the position once
+     *  it is changed other than by making or undoing moves. */
+    private void detach() {
+        for (BoardSnapshot s = _base; s != null && s.numMoves() > 0;
+             s = s.previous()) {
+            _moves[s.numMoves() - 1] = s.lastMove();
+        }
+        _base = null;
+        _baseMoves = 0;
+    }
+
     /** Return the Piece whose move it is (WHITE or BLACK). */
     Piece turn() {
         return _turn;
@@ -75,6 +256,28 @@ class Board {
         return _numMoves;
     }
 
+    /** Return move number K (0 <= K < numMoves()) of those made, packed
+     *  (see Move.pack). */
+    int move(int k) {
+        assert k >= 0 && k < _numMoves;
+        return k >= _baseMoves ? _moves[k] : _base.move(k);
+    }
+
+    /** Return the Zobrist hash key of the current position: the
+     *  exclusive or of a fixed random number for each piece on each
+     *  square, and another if it is Black's turn.  Positions with equal
+     *  contents and side to move have equal keys, however they were
+     *  reached. */
+    long key() {
+        return _key;
+    }
+
+    /** Return the number of empty squares. */
+    int emptySquares() {
+        return SIZE * SIZE - Long.bitCount(_bits[0] | _bits[2] | _bits[4])
+            - Long.bitCount(_bits[1] | _bits[3] | _bits[5]);
+    }
+
     /** Return the winner in the current position, or null if the game is
      *  not yet finished. */
     Piece winner() {
@@ -83,7 +286,16 @@ class Board {
 
     /** Return the contents the square at S. */
     final Piece get(Square s) {
-        return _allsquares.get(s);
+        int k = s.index(), w = k >>> 6;
+        long bit = 1L << k;
+        if ((_bits[w] & bit) != 0) {
+            return WHITE;
+        } else if ((_bits[2 + w] & bit) != 0) {
+            return BLACK;
+        } else if ((_bits[4 + w] & bit) != 0) {
+            return SPEAR;
+        }
+        return EMPTY;
     }
 
     /** Return the contents of the square at (COL, ROW), where
@@ -99,7 +311,61 @@ class Board {
 
     /** Set square S to P. */
     final void put(Piece p, Square s) {
-        _allsquares.put(s, p);
+        if (_base != null) {
+            detach();
+        }
+        Piece old = get(s);
+        if (old != EMPTY) {
+            flip(set(old), s.index());
+        }
+        if (p != EMPTY) {
+            flip(set(p), s.index());
+        }
+    }
+
+    /** Return word W (0 or 1, as for Square.between) of the set of
+     *  squares holding P (WHITE, BLACK, or SPEAR). */
+    long pieces(Piece p, int w) {
+        return _bits[set(p) + w];
+    }
+
+    /** Return true iff the square with index K holds an amazon or a
+     *  spear. */
+    private boolean occupied(int k) {
+        int w = k >>> 6;
+        return ((_bits[w] | _bits[2 + w] | _bits[4 + w]) & (1L << k)) != 0;
+    }
+
+    /** Return the offset in _bits of the bitboard for P (WHITE, BLACK,
+     *  or SPEAR). */
+    private static int set(Piece p) {
+        return 2 * (p.ordinal() - WHITE.ordinal());
+    }
+
+    /** Toggle the bit for the square with index K in the bitboard at
+     *  offset SET of _bits, updating the hash key and, if the square
+     *  becomes empty or occupied, the empty-neighbor counts to match. */
+    private void flip(int set, int k) {
+        boolean wasOccupied = occupied(k);
+        _bits[set + (k >>> 6)] ^= 1L << k;
+        _key ^= ZOBRIST[set / 2][k];
+        if (occupied(k) != wasOccupied) {
+            int delta = wasOccupied ? 1 : -1;
+            for (int dir = 0; dir < 8; dir += 1) {
+                int[] ray = Square.ray(k, dir);
+                if (ray.length > 0) {
+                    _emptyNeighbors[ray[0]] += delta;
+                }
+            }
+        }
+    }
+
+    /** Set the side to move to SIDE, updating the hash key to match. */
+    private void setTurn(Piece side) {
+        if (side != _turn) {
+            _key ^= BLACK_TO_MOVE;
+        }
+        _turn = side;
     }
 
     /** Set square (COL, ROW) to P. */
@@ -121,17 +387,23 @@ class Board {
     boolean isUnblockedMove(Square from,
                             Square to, Square asEmpty) {
         assert from.isQueenMove(to);
-        for (int i = 1; i <= Math.max(
-                Math.abs(to.row() - from.row()),
-                Math.abs(to.col() - from.col()));
-             i += 1
-        ) {
-            Square curr = from.queenMove(from.direction(to), i);
-            if (!EMPTY.equals(get(curr)) && !(curr == asEmpty)) {
-                return false;
+        int f = from.index(), t = to.index();
+        long path0 = Square.between(f, t, 0), path1 = Square.between(f, t, 1);
+        if (t < 64) {
+            path0 |= 1L << t;
+        } else {
+            path1 |= 1L << t;
+        }
+        long occ0 = _bits[0] | _bits[2] | _bits[4],
+            occ1 = _bits[1] | _bits[3] | _bits[5];
+        if (asEmpty != null) {
+            if (asEmpty.index() < 64) {
+                occ0 &= ~(1L << asEmpty.index());
+            } else {
+                occ1 &= ~(1L << asEmpty.index());
             }
         }
-        return true;
+        return (path0 & occ0) == 0 && (path1 & occ1) == 0;
     }
 
     /** Return true iff FROM is a valid starting square for a move. */
@@ -161,42 +433,144 @@ class Board {
         return isLegal(move.from(), move.to(), move.spear());
     }
 
-    /** Move FROM-TO(SPEAR), assuming this is a legal move. */
-    void makeMove(Square from, Square to, Square spear) {
+    /** Return true iff the packed move MOVE (see Move.pack) is a legal
+     *  move in the current position.  MOVE need not be a queen move
+     *  followed by a queen move. */
+    boolean isLegal(int move) {
+        int from = Move.fromIndex(move), to = Move.toIndex(move),
+            spear = Move.spearIndex(move);
+        if (from >= SIZE * SIZE || to >= SIZE * SIZE
+            || spear >= SIZE * SIZE) {
+            return false;
+        }
+        return isLegal(Square.sq(from), Square.sq(to), Square.sq(spear));
+    }
+
+    /** Move according to the packed move MOVE (see Move.pack), assuming
+     *  it is legal. */
+    void makeMove(int move) {
         if (winner() == null) {
-            _allsquares.put(from, EMPTY);
-            _allsquares.put(to, _turn);
-            _allsquares.put(spear, SPEAR);
+            flip(set(_turn), Move.fromIndex(move));
+            flip(set(_turn), Move.toIndex(move));
+            flip(set(SPEAR), Move.spearIndex(move));
+            _moves[_numMoves] = move;
             _numMoves += 1;
-            _moves.addLast(Move.mv(from, to, spear));
             Piece winner = _turn;
-            _turn = turn().opponent();
-            if (!legalMoves().hasNext()) {
+            setTurn(turn().opponent());
+            if (!hasMove(_turn)) {
                 _winner = winner;
             }
         }
     }
 
+    /** Move FROM-TO(SPEAR), assuming this is a legal move. */
+    void makeMove(Square from, Square to, Square spear) {
+        makeMove(Move.pack(from.index(), to.index(), spear.index()));
+    }
+
     /** Move according to MOVE, assuming it is a legal move. */
     void makeMove(Move move) {
-        makeMove(move.from(), move.to(), move.spear());
+        makeMove(move.packed());
     }
 
-    /** Undo one move.  Has no effect on the initial board. */
+    /** Make the first half of a move: move the amazon for the side to
+     *  move at the square with index FROM to the square with index TO,
+     *  assuming this is legal, and leave the spear to be thrown by
+     *  throwSpear.  Until then, turn() is unchanged, the position's key
+     *  differs from that of any position with no spear pending, and no
+     *  other move may be made.  undoQueenMove takes the move back. */
+    void makeQueenMove(int from, int to) {
+        assert _winner == null && _queenTo < 0;
+        flip(set(_turn), from);
+        flip(set(_turn), to);
+        _queenFrom = from;
+        _queenTo = to;
+        _key ^= ZOBRIST_PENDING[to];
+    }
+
+    /** Return true iff a queen move has been made by makeQueenMove and
+     *  its spear is yet to be thrown. */
+    boolean spearPending() {
+        return _queenTo >= 0;
+    }
+
+    /** Complete the move begun by makeQueenMove by throwing the spear to
+     *  the square with index SPEAR, assuming this is legal.  The result
+     *  is as if the whole move had been made by makeMove; unthrowSpear
+     *  takes back just the throw. */
+    void throwSpear(int spear) {
+        assert _queenTo >= 0;
+        _key ^= ZOBRIST_PENDING[_queenTo];
+        flip(set(SPEAR), spear);
+        _moves[_numMoves] = Move.pack(_queenFrom, _queenTo, spear);
+        _numMoves += 1;
+        _queenFrom = _queenTo = -1;
+        Piece winner = _turn;
+        setTurn(turn().opponent());
+        if (!hasMove(_turn)) {
+            _winner = winner;
+        }
+    }
+
+    /** Undo the spear throw of the last move, leaving its queen move made
+     *  and the spear pending, as after makeQueenMove.  The last move may
+     *  have been made by makeMove or by throwSpear. */
+    void unthrowSpear() {
+        assert _queenTo < 0 && _numMoves > _baseMoves;
+        _numMoves -= 1;
+        int last = _moves[_numMoves];
+        _winner = null;
+        setTurn(turn().opponent());
+        flip(set(SPEAR), Move.spearIndex(last));
+        _queenFrom = Move.fromIndex(last);
+        _queenTo = Move.toIndex(last);
+        _key ^= ZOBRIST_PENDING[_queenTo];
+    }
+
+    /** Take back the queen move made by makeQueenMove, whose spear is
+     *  still pending. */
+    void undoQueenMove() {
+        assert _queenTo >= 0;
+        _key ^= ZOBRIST_PENDING[_queenTo];
+        flip(set(_turn), _queenTo);
+        flip(set(_turn), _queenFrom);
+        _queenFrom = _queenTo = -1;
+    }
+
+    /** Undo one move.  Has no effect on the initial board.  Since
+     *  makeMove only plays a move while there is no winner, the winner
+     *  before the undone move is always null. */
     void undo() {
         if (_numMoves >= 1) {
-            _turn = turn().opponent();
-            _allsquares.put(lastMove().spear(), EMPTY);
-            _allsquares.put(lastMove().to(), EMPTY);
-            _allsquares.put(lastMove().from(), _turn);
-            _moves.pollLast();
+            int last;
+            if (_numMoves > _baseMoves) {
+                last = _moves[_numMoves - 1];
+            } else {
+                last = _base.lastMove();
+                _base = _base.previous();
+                _baseMoves -= 1;
+            }
             _numMoves -= 1;
+            _winner = null;
+            setTurn(turn().opponent());
+            flip(set(SPEAR), Move.spearIndex(last));
+            flip(set(_turn), Move.toIndex(last));
+            flip(set(_turn), Move.fromIndex(last));
         }
     }
 
-    /** @return last move made. */
+    /** @return last move made, or null if there is none. */
     Move lastMove() {
-        return _moves.getLast();
+        return _numMoves == 0 ? null : Move.mv(lastPackedMove());
+    }
+
+    /** Return the last move made, packed (see Move.pack), or 0 if there
+     *  is none. */
+    int lastPackedMove() {
+        if (_numMoves > _baseMoves) {
+            return _moves[_numMoves - 1];
+        }
+        return _base == null ? 0 : _base.lastMove();
     }
 
     /** Return an Iterator over the Squares that are reachable by an
@@ -221,16 +595,254 @@ class Board {
         return new LegalMoveIterator(side);
     }
 
+    /** Store the legal moves for SIDE (regardless of whose turn it is),
+     *  packed as by Move.pack, in MOVES[0], MOVES[1], ..., and return
+     *  how many there are.  Moves beyond MOVES.length are counted but not
+     *  stored.  Moves come in the same order as from legalMoves(SIDE). */
+    int generateMoves(Piece side, int[] moves) {
+        return generateMoves(side, moves, null);
+    }
+
+    /** Pass each legal move for SIDE (regardless of whose turn it is),
+     *  packed as by Move.pack, to ACTION, in the same order as
+     *  legalMoves(SIDE). */
+    void generateMoves(Piece side, MoveConsumer action) {
+        generateMoves(side, null, action);
+    }
+
+    /** Generate the legal moves for SIDE, passing each to ACTION if it is
+     *  non-null and otherwise storing it in MOVES as for
+     *  generateMoves(SIDE, MOVES).  Return the number of moves. */
+    private int generateMoves(Piece side, int[] moves, MoveConsumer action) {
+        int n = 0;
+        for (int w = 0; w < 2; w += 1) {
+            for (long pieces = _bits[set(side) + w]; pieces != 0;
+                 pieces &= pieces - 1) {
+                int from = 64 * w + Long.numberOfTrailingZeros(pieces);
+                long occ0 = _bits[0] | _bits[2] | _bits[4],
+                    occ1 = _bits[1] | _bits[3] | _bits[5];
+                if (from < 64) {
+                    occ0 &= ~(1L << from);
+                } else {
+                    occ1 &= ~(1L << from);
+                }
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (int to : Square.ray(from, dir)) {
+                        if (member(occ0, occ1, to)) {
+                            break;
+                        }
+                        for (int dir2 = 0; dir2 < 8; dir2 += 1) {
+                            for (int spear : Square.ray(to, dir2)) {
+                                if (member(occ0, occ1, spear)) {
+                                    break;
+                                }
+                                int move = Move.pack(from, to, spear);
+                                if (action != null) {
+                                    action.accept(move);
+                                } else if (n < moves.length) {
+                                    moves[n] = move;
+                                }
+                                n += 1;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Store the queen moves (first halves of moves, as for
+     *  makeQueenMove) of SIDE, regardless of whose turn it is, in MOVES[0],
+     *  MOVES[1], ..., and return how many there are.  The queen move
+     *  FROM-TO is stored as Move.pack(FROM, TO, TO), which is never a
+     *  whole move.  Moves beyond MOVES.length are counted but not
+     *  stored. */
+    int generateQueenMoves(Piece side, int[] moves) {
+        long occ0 = _bits[0] | _bits[2] | _bits[4],
+            occ1 = _bits[1] | _bits[3] | _bits[5];
+        int n = 0;
+        for (int w = 0; w < 2; w += 1) {
+            for (long pieces = _bits[set(side) + w]; pieces != 0;
+                 pieces &= pieces - 1) {
+                int from = 64 * w + Long.numberOfTrailingZeros(pieces);
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (int to : Square.ray(from, dir)) {
+                        if (member(occ0, occ1, to)) {
+                            break;
+                        }
+                        if (n < moves.length) {
+                            moves[n] = Move.pack(from, to, to);
+                        }
+                        n += 1;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Store the completions of the pending queen move (see
+     *  makeQueenMove), packed as whole moves by Move.pack, in MOVES[0],
+     *  MOVES[1], ..., and return how many there are.  Moves beyond
+     *  MOVES.length are counted but not stored. */
+    int generateSpears(int[] moves) {
+        assert _queenTo >= 0;
+        long occ0 = _bits[0] | _bits[2] | _bits[4],
+            occ1 = _bits[1] | _bits[3] | _bits[5];
+        int n = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            for (int spear : Square.ray(_queenTo, dir)) {
+                if (member(occ0, occ1, spear)) {
+                    break;
+                }
+                if (n < moves.length) {
+                    moves[n] = Move.pack(_queenFrom, _queenTo, spear);
+                }
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return the number of legal moves for SIDE (regardless of whose
+     *  turn it is), without generating them. */
+    int countMoves(Piece side) {
+        int n = 0;
+        for (int w = 0; w < 2; w += 1) {
+            for (long pieces = _bits[set(side) + w]; pieces != 0;
+                 pieces &= pieces - 1) {
+                int from = 64 * w + Long.numberOfTrailingZeros(pieces);
+                long occ0 = _bits[0] | _bits[2] | _bits[4],
+                    occ1 = _bits[1] | _bits[3] | _bits[5];
+                if (from < 64) {
+                    occ0 &= ~(1L << from);
+                } else {
+                    occ1 &= ~(1L << from);
+                }
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (int to : Square.ray(from, dir)) {
+                        if (member(occ0, occ1, to)) {
+                            break;
+                        }
+                        n += reach(occ0, occ1, to);
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Return true iff SIDE (regardless of whose turn it is) has a legal
+     *  move.  An amazon can move iff one of its neighbors is empty, and
+     *  having moved, it can always throw its spear back.  The number of
+     *  empty neighbors of each square is kept up to date as pieces are
+     *  placed and removed, so this looks only at the squares of SIDE's
+     *  amazons. */
+    boolean hasMove(Piece side) {
+        for (int w = 0; w < 2; w += 1) {
+            for (long pieces = _bits[set(side) + w]; pieces != 0;
+                 pieces &= pieces - 1) {
+                if (_emptyNeighbors[64 * w
+                                    + Long.numberOfTrailingZeros(pieces)]
+                    > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return a quick estimate, for forward pruning, of how good the
+     *  packed move MOVE is for the side to move: the number of squares
+     *  its amazon can reach afterwards, plus the number its spear cuts
+     *  off from the opponent's amazons that see it, less the number it
+     *  cuts off from the mover's other amazons.  MOVE may also complete
+     *  a pending queen move. */
+    int moveScore(int move) {
+        int from = Move.fromIndex(move), to = Move.toIndex(move),
+            spear = Move.spearIndex(move);
+        long occ0 = _bits[0] | _bits[2] | _bits[4],
+            occ1 = _bits[1] | _bits[3] | _bits[5];
+        if (!spearPending()) {
+            if (from < 64) {
+                occ0 &= ~(1L << from);
+            } else {
+                occ1 &= ~(1L << from);
+            }
+            if (to < 64) {
+                occ0 |= 1L << to;
+            } else {
+                occ1 |= 1L << to;
+            }
+        }
+        int mine = set(_turn), theirs = set(_turn.opponent());
+        int score = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            int k = -1;
+            for (int sq : Square.ray(spear, dir)) {
+                if (member(occ0, occ1, sq)) {
+                    k = sq;
+                    break;
+                }
+            }
+            if (k < 0 || k == to) {
+                continue;
+            }
+            int lost = 1;
+            for (int sq : Square.ray(spear, (dir + 4) % 8)) {
+                if (member(occ0, occ1, sq)) {
+                    break;
+                }
+                lost += 1;
+            }
+            if (member(_bits[theirs], _bits[theirs + 1], k)) {
+                score += lost;
+            } else if (member(_bits[mine], _bits[mine + 1], k)) {
+                score -= lost;
+            }
+        }
+        if (spear < 64) {
+            occ0 |= 1L << spear;
+        } else {
+            occ1 |= 1L << spear;
+        }
+        return score + reach(occ0, occ1, to);
+    }
+
+    /** Return the number of squares reachable by a queen move from the
+     *  square with index FROM when the occupied squares are the set
+     *  whose two words are OCC0 and OCC1. */
+    private static int reach(long occ0, long occ1, int from) {
+        int n = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            for (int sq : Square.ray(from, dir)) {
+                if (member(occ0, occ1, sq)) {
+                    break;
+                }
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return true iff the square with index K is in the set whose two
+     *  words are W0 and W1. */
+    private static boolean member(long w0, long w1, int k) {
+        return ((k < 64 ? w0 : w1) & (1L << k)) != 0;
+    }
+
     /** An iterator used by reachableFrom. */
     private class ReachableFromIterator implements Iterator<Square> {
 
         /** Iterator of all squares reachable by queen move from FROM,
          *  treating ASEMPTY as empty. */
         ReachableFromIterator(Square from, Square asEmpty) {
-            _from = from;
-            _dir = -1;
-            _steps = 0;
-            _asEmpty = asEmpty;
+            _from = from.index();
+            _dir = 0;
+            _ray = Square.ray(_from, _dir);
+            _steps = -1;
+            _asEmpty = asEmpty == null ? -1 : asEmpty.index();
             toNext();
         }
 
@@ -242,7 +854,7 @@ class Board {
         @Override
         public Square next() {
             if (hasNext()) {
-                Square result = _from.queenMove(_dir, _steps);
+                Square result = Square.sq(_ray[_steps]);
                 toNext();
                 return result;
             }
@@ -250,27 +862,31 @@ class Board {
         }
 
         /** Advance _dir and _steps, so that the next valid Square is
-         *  _steps steps in direction _dir from _from. */
+         *  _ray[_steps], moving on to the next direction as soon as the
+         *  current ray leaves the board or is blocked. */
         private void toNext() {
-            Square curr = _from.queenMove(_dir, _steps + 1);
-            while ((curr == null
-                    || !isUnblockedMove(_from, curr, _asEmpty))
-                    && hasNext()) {
+            _steps += 1;
+            while (_steps >= _ray.length
+                   || (occupied(_ray[_steps]) && _ray[_steps] != _asEmpty)) {
                 _dir += 1;
                 _steps = 0;
-                curr = _from.queenMove(_dir, _steps + 1);
+                if (_dir == 8) {
+                    return;
+                }
+                _ray = Square.ray(_from, _dir);
             }
-            _steps += 1;
         }
 
-        /** Starting square. */
-        private Square _from;
+        /** Index of the starting square. */
+        private int _from;
         /** Current direction. */
         private int _dir;
-        /** Current distance. */
+        /** Squares in direction _dir from _from. */
+        private int[] _ray;
+        /** Position of the current square in _ray. */
         private int _steps;
-        /** Square treated as empty. */
-        private Square _asEmpty;
+        /** Index of the square treated as empty, or -1. */
+        private int _asEmpty;
     }
 
     /** An iterator used by legalMoves. */
@@ -376,6 +992,31 @@ class Board {
         return result;
     }
 
+    /** ZOBRIST[j][k] is the hash key of a white amazon (j = 0), black
+     *  amazon (1), or spear (2) on square k.  The values are fixed from
+     *  run to run, so that keys may be saved. */
+    private static final long[][] ZOBRIST = new long[3][SIZE * SIZE];
+
+    /** ZOBRIST_PENDING[k] is the hash key of a spear waiting to be
+     *  thrown by the amazon on square k (see makeQueenMove). */
+    private static final long[] ZOBRIST_PENDING = new long[SIZE * SIZE];
+
+    /** The hash key of Black having the move. */
+    private static final long BLACK_TO_MOVE;
+
+    static {
+        Random keys = new Random(0x616d617a6f6e73L);
+        for (long[] piece : ZOBRIST) {
+            for (int k = 0; k < piece.length; k += 1) {
+                piece[k] = keys.nextLong();
+            }
+        }
+        BLACK_TO_MOVE = keys.nextLong();
+        for (int k = 0; k < ZOBRIST_PENDING.length; k += 1) {
+            ZOBRIST_PENDING[k] = keys.nextLong();
+        }
+    }
+
     /** An empty iterator for initialization. */
     private static final Iterator<Square> NO_SQUARES =
         Collections.emptyIterator();
@@ -385,10 +1026,29 @@ class Board {
     /** Cached value of winner on this board, or EMPTY if it has not been
      *  computed. */
     private Piece _winner;
-    /** Squares. */
-    private HashMap<Square, Piece> _allsquares;
-    /** List of all moves. */
-    private ArrayDeque<Move> _moves;
+    /** Bitboards over the square indices 0-99 for the white amazons,
+     *  black amazons, and spears, in that order.  Each takes two words:
+     *  bit k of word 0 is square k, and bit k of word 1 is square 64 + k. */
+    private final long[] _bits = new long[6];
+    /** _emptyNeighbors[k] is the number of empty squares adjacent to the
+     *  square with index k. */
+    private final byte[] _emptyNeighbors = new byte[SIZE * SIZE];
+    /** The moves made since my last snapshot, packed (see Move.pack), in
+     *  _moves[_baseMoves .. _numMoves - 1].  Each move throws a spear
+     *  onto an empty square, so there are never more than SIZE * SIZE
+     *  moves in all. */
+    private final int[] _moves = new int[SIZE * SIZE];
     /** Moves taken. */
     private int _numMoves;
+    /** The snapshot of my position after my first _baseMoves moves,
+     *  whose history holds those moves, or null (when _baseMoves is 0)
+     *  if there is none. */
+    private BoardSnapshot _base;
+    /** The number of moves in _base's history. */
+    private int _baseMoves;
+    /** The squares moved from and to by a queen move whose spear is
+     *  pending (see makeQueenMove), or -1 if there is none. */
+    private int _queenFrom, _queenTo;
+    /** Hash key of the current position (see key()). */
+    private long _key;
 }
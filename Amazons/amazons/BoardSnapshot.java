@@ -0,0 +1,121 @@
+package amazons;
+
+import static amazons.Piece.BLACK;
+import static amazons.Piece.EMPTY;
+import static amazons.Piece.SPEAR;
+import static amazons.Piece.WHITE;
+
+/** An immutable copy of a Board's position, made by Board.snapshot.
+ *  Besides the contents of the squares, a snapshot refers to the
+ *  snapshot of the position before the last move, so the snapshots of
+ *  a game form a persistent move history: the snapshot after another
+ *  move shares all the history before it, and so costs only a few
+ *  words, however long the game.  Snapshots may be passed freely
+ *  between threads, and a Board made from one (see Board(BoardSnapshot))
+ *  takes its history by reference, without copying it.
+ *  @author Ben Chen
+ */
+final class BoardSnapshot {
+
+    /** A snapshot of BOARD, which has no spear pending, reached by the
+     *  packed move MOVE from the position of PREVIOUS, or with no moves
+     *  before it if PREVIOUS is null (when MOVE is 0). */
+    BoardSnapshot(Board board, BoardSnapshot previous, int move) {
+        for (int w = 0; w < 2; w += 1) {
+            _bits[w] = board.pieces(WHITE, w);
+            _bits[2 + w] = board.pieces(BLACK, w);
+            _bits[4 + w] = board.pieces(SPEAR, w);
+        }
+        _turn = board.turn();
+        _winner = board.winner();
+        _key = board.key();
+        _previous = previous;
+        _move = move;
+        _numMoves = previous == null ? 0 : previous._numMoves + 1;
+    }
+
+    /** Return the contents of the square at S. */
+    Piece get(Square s) {
+        int k = s.index(), w = k >>> 6;
+        long bit = 1L << k;
+        if ((_bits[w] & bit) != 0) {
+            return WHITE;
+        } else if ((_bits[2 + w] & bit) != 0) {
+            return BLACK;
+        } else if ((_bits[4 + w] & bit) != 0) {
+            return SPEAR;
+        }
+        return EMPTY;
+    }
+
+    /** Return the contents of the square at (COL, ROW), where
+     *  0 <= COL, ROW <= 9. */
+    Piece get(int col, int row) {
+        return get(Square.sq(col, row));
+    }
+
+    /** Return word W (0 or 1) of the set of squares holding P (WHITE,
+     *  BLACK, or SPEAR), as for Board.pieces. */
+    long pieces(Piece p, int w) {
+        return _bits[2 * (p.ordinal() - WHITE.ordinal()) + w];
+    }
+
+    /** Return the side to move (WHITE or BLACK). */
+    Piece turn() {
+        return _turn;
+    }
+
+    /** Return the winner, or null if the game is not finished. */
+    Piece winner() {
+        return _winner;
+    }
+
+    /** Return the position's hash key (see Board.key). */
+    long key() {
+        return _key;
+    }
+
+    /** Return the number of moves in my history. */
+    int numMoves() {
+        return _numMoves;
+    }
+
+    /** Return the move that led to me, packed (see Move.pack), or 0 if
+     *  my history is empty. */
+    int lastMove() {
+        return _move;
+    }
+
+    /** Return the snapshot of the position before the last move, or null
+     *  if my history is empty. */
+    BoardSnapshot previous() {
+        return _previous;
+    }
+
+    /** Return move number K (0 <= K < numMoves()) of my history, packed.
+     *  Takes time proportional to numMoves() - K. */
+    int move(int k) {
+        if (k < 0 || k >= _numMoves) {
+            throw Utils.error("no move %d", k);
+        }
+        BoardSnapshot s = this;
+        while (s._numMoves > k + 1) {
+            s = s._previous;
+        }
+        return s._move;
+    }
+
+    /** The bitboards for the white amazons, black amazons, and spears,
+     *  two words each, as in Board. */
+    private final long[] _bits = new long[6];
+    /** The side to move, and the winner (or null). */
+    private final Piece _turn, _winner;
+    /** The hash key. */
+    private final long _key;
+    /** The position before the last move, or null. */
+    private final BoardSnapshot _previous;
+    /** The last move, packed, or 0. */
+    private final int _move;
+    /** The length of my history. */
+    private final int _numMoves;
+}
@@ -125,8 +125,8 @@ class BoardWidget extends Pad {
     }
 
     /** Revise the displayed board according to BOARD. */
-    synchronized void update(Board board) {
-        _board.copy(board);
+    synchronized void update(BoardSnapshot board) {
+        _board = board;
         repaint();
     }
 
@@ -165,7 +165,7 @@ class BoardWidget extends Pad {
     /** Queue on which to post move commands (from mouse clicks). */
     private ArrayBlockingQueue<String> _commands;
     /** Board being displayed. */
-    private final Board _board = new Board();
+    private BoardSnapshot _board = new Board().snapshot();
 
     /** Image of white queen. */
     private BufferedImage _whiteQueen;
@@ -1,5 +1,6 @@
 package amazons;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Random;
 import java.util.Scanner;
@@ -35,37 +36,145 @@ final class Controller {
         _moves = "";
     }
 
-    /** Play Amazons. */
+    /** Play Amazons.  However play ends, the game so far is recorded,
+     *  the players are closed, and so are the log and recorder. */
     void play() {
         _playing = true;
         _winner = null;
         _board.init();
+        _gameRecorded = false;
         _white = _manualPlayerTemplate.create(WHITE, this);
         _black = _autoPlayerTemplate.create(BLACK, this);
-        while (_playing) {
-            _view.update(_board);
-            String command;
-            if (_winner == null) {
-                if (_board.turn() == WHITE) {
-                    command = _white.myMove();
+        try {
+            while (_playing) {
+                _view.update(_board.snapshot());
+                String command;
+                if (_winner == null) {
+                    if (_board.turn() == WHITE) {
+                        command = _white.myMove();
+                    } else {
+                        command = _black.myMove();
+                    }
                 } else {
-                    command = _black.myMove();
+                    command = _nonPlayer.myMove();
+                    if (command == null) {
+                        command = "quit";
+                    }
                 }
-            } else {
-                command = _nonPlayer.myMove();
-                if (command == null) {
-                    command = "quit";
+                try {
+                    executeCommand(command);
+                } catch (IllegalArgumentException excp) {
+                    reportError("Error: %s%n", excp.getMessage());
                 }
             }
-            try {
-                executeCommand(command);
-            } catch (IllegalArgumentException excp) {
-                reportError("Error: %s%n", excp.getMessage());
+        } finally {
+            recordGame();
+            _white.close();
+            _black.close();
+            if (_logFile != null) {
+                _logFile.close();
+            }
+            if (_recorder != null) {
+                try {
+                    _recorder.close();
+                } catch (IOException excp) {
+                    reportError("Could not write game record: %s",
+                                excp.getMessage());
+                }
             }
         }
-        if (_logFile != null) {
-            _logFile.close();
+    }
+
+    /** Record each game played to RECORDER (if non-null): when it is
+     *  won, or when it is abandoned after at least one move.  play
+     *  closes RECORDER when it finishes. */
+    void setRecorder(GameRecorder recorder) {
+        _recorder = recorder;
+    }
+
+    /** Record the current game, if there is a recorder, it has moves,
+     *  and it has not already been recorded. */
+    private void recordGame() {
+        if (_recorder != null && !_gameRecorded && _board.numMoves() > 0) {
+            _recorder.record(_board, _winner);
         }
+        _gameRecorded = true;
+    }
+
+    /** Play one game to the end without consulting the view or the
+     *  input, between a White player created from WHITETEMPLATE and a
+     *  Black player created from BLACKTEMPLATE.  The game starts from
+     *  the initial position with OPENINGMOVES moves chosen at random
+     *  (with randInt, so that setSeed determines them).  Returns the
+     *  winner.  Afterwards, thinkTime, movesMade, and nodes describe how
+     *  each player fared.  The game goes to my recorder, if any (see
+     *  setRecorder).  Throws IllegalArgumentException if a player
+     *  returns anything but a legal move.  Either way, both players are
+     *  closed (see Player.close) when the game ends. */
+    Piece selfPlay(Player whiteTemplate, Player blackTemplate,
+                   int openingMoves) {
+        _board.init();
+        _white = whiteTemplate.create(WHITE, this);
+        _black = blackTemplate.create(BLACK, this);
+        _thinkTime = new long[2];
+        _movesMade = new int[2];
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < openingMoves && _board.winner() == null;
+             k += 1) {
+            int n = _board.generateMoves(_board.turn(), moves);
+            _board.makeMove(moves[randInt(n)]);
+        }
+        try {
+            while (_board.winner() == null) {
+                Piece side = _board.turn();
+                long start = System.nanoTime();
+                String command = player(side).myMove();
+                _thinkTime[index(side)] += System.nanoTime() - start;
+                _movesMade[index(side)] += 1;
+                int move = command == null ? 0 : Move.parse(command);
+                if (!_board.isLegal(move)) {
+                    throw error("%s played %s", side.toName(), command);
+                }
+                _board.makeMove(move);
+            }
+        } finally {
+            _white.close();
+            _black.close();
+        }
+        _winner = _board.winner();
+        if (_recorder != null) {
+            _recorder.record(_board, _winner);
+        }
+        return _winner;
+    }
+
+    /** Return the index for SIDE (WHITE or BLACK) in _thinkTime and
+     *  _movesMade. */
+    private static int index(Piece side) {
+        return side == WHITE ? 0 : 1;
+    }
+
+    /** Return the current player for SIDE (WHITE or BLACK). */
+    Player player(Piece side) {
+        return side == WHITE ? _white : _black;
+    }
+
+    /** Return the nanoseconds SIDE's player spent choosing moves in the
+     *  last selfPlay. */
+    long thinkTime(Piece side) {
+        return _thinkTime[index(side)];
+    }
+
+    /** Return the number of moves SIDE's player chose in the last
+     *  selfPlay. */
+    int movesMade(Piece side) {
+        return _movesMade[index(side)];
+    }
+
+    /** Return the number of positions SIDE's player examined in the
+     *  last selfPlay (see Player.nodes). */
+    long nodes(Piece side) {
+        return player(side).nodes();
     }
 
     /** Return the current board.  The value returned should not be
@@ -74,6 +183,12 @@ final class Controller {
         return _board;
     }
 
+    /** Return an immutable snapshot of the current board, sharing its
+     *  history with the earlier ones (see Board.snapshot). */
+    BoardSnapshot snapshot() {
+        return _board.snapshot();
+    }
+
     /** Return a random integer in the range 0 inclusive to U, exclusive.
      *  Available for use by AIs that use random selections in some cases.
      *  Once setRandomSeed is called with a particular value, this method
@@ -142,6 +257,8 @@ final class Controller {
         new Command("seed\\s+(\\d+)$", this::doSeed),
         new Command("dump$", this::doDump),
         new Command("new$", this::doNew),
+        new Command("perft\\s+(\\d+)$", this::doPerft),
+        new Command("stats$", this::doStats),
         new Command(Move.MOVE_PATTERN.toString(), this::doMove),
         new Command("(auto|manual)\\s+(black|white)", this::doMA),
         new Command("[a-jA-J]\\d{1,2}", this::doPMove)
@@ -155,7 +272,6 @@ final class Controller {
     private void executeCommand(String cmnd) {
         if (_logFile != null) {
             _logFile.println(cmnd);
-            _logFile.flush();
         }
 
         _comment.reset(cmnd);
@@ -179,8 +295,8 @@ final class Controller {
     private void doMove(Matcher mat) {
         int addon = (mat.group(1) == null ? 3 : 0);
         Square from = Square.sq(mat.group(1 + addon));
-        Move m = Move.mv(mat.group(0));
-        if (m == null || !board().isLegal(m)
+        int m = Move.parse(mat.group(0));
+        if (!board().isLegal(m)
                 || !board().turn().equals(board().get(from))) {
             throw error("Illegal move.");
         } else if (_winner == null) {
@@ -189,6 +305,7 @@ final class Controller {
         _winner = board().winner();
         if (_winner != null) {
             reportNote("%s wins.", _winner.toName());
+            recordGame();
         }
     }
 
@@ -215,16 +332,20 @@ final class Controller {
                 ? _manualPlayerTemplate : _autoPlayerTemplate);
         String player = mat.group(2);
         if (player.equals("black")) {
+            _black.close();
             _black = mora.create(BLACK, this);
         } else {
+            _white.close();
             _white = mora.create(WHITE, this);
         }
     }
 
     /** Command "new". */
     private void doNew(Matcher unused) {
+        recordGame();
         _board.init();
         _winner = null;
+        _gameRecorded = false;
     }
 
     /** Command "quit". */
@@ -246,6 +367,36 @@ final class Controller {
         System.out.printf("===%n%s===%n", _board);
     }
 
+    /** Command "perft N", where N is the first group of MAT: report the
+     *  perft counts (see Perft) to depth N from the current position,
+     *  using all available processors. */
+    private void doPerft(Matcher mat) {
+        int depth;
+        try {
+            depth = Integer.parseInt(mat.group(1));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+        Perft.run(_board, depth, Runtime.getRuntime().availableProcessors(),
+                  _reporter);
+    }
+
+    /** Command "stats": report the statistics of each current player's
+     *  last move (see Player.statistics). */
+    private void doStats(Matcher unused) {
+        for (Piece side : new Piece[] { WHITE, BLACK }) {
+            Player player = player(side);
+            String stats = player == null ? null : player.statistics();
+            if (stats == null) {
+                reportNote("%s: no statistics.", side.toName());
+            } else {
+                for (String line : stats.split("\\R")) {
+                    reportNote("%s: %s", side.toName(), line);
+                }
+            }
+        }
+    }
+
     /** The board. */
     private Board _board = new Board();
 
@@ -261,9 +412,16 @@ final class Controller {
     /** My pseudo-random number generator. */
     private Random _randGen = new Random();
 
-    /** Log file, or null if absent. */
+    /** Log file, or null if absent.  It is buffered, and flushed when
+     *  play finishes. */
     private PrintStream _logFile;
 
+    /** Recorder of the games played, or null if absent. */
+    private GameRecorder _recorder;
+
+    /** True iff the current game has been recorded (or is not to be). */
+    private boolean _gameRecorded;
+
     /** Input source. */
     private Scanner _input;
 
@@ -281,6 +439,13 @@ final class Controller {
     /** Reporter for messages and errors. */
     private Reporter _reporter;
 
+    /** Nanoseconds spent choosing moves by White (index 0) and Black
+     *  (index 1) in the last selfPlay. */
+    private long[] _thinkTime = new long[2];
+    /** Moves made by White (index 0) and Black (index 1) in the last
+     *  selfPlay. */
+    private int[] _movesMade = new int[2];
+
     /** Temporary storage of clicked squares. */
     private String _moves;
 
@@ -0,0 +1,32 @@
+package amazons;
+
+/** A static estimate of the value of a position, used at the leaves of
+ *  the AI's search.  An Evaluator may keep scratch state between calls,
+ *  so each searching thread needs its own.
+ *  @author Ben Chen
+ */
+interface Evaluator {
+
+    /** Return a heuristic value for BOARD, which has no winner yet.
+     *  Positive values favor WHITE and negative ones BLACK; the magnitude
+     *  is less than Searcher.WINNING_VALUE. */
+    int score(Board board);
+
+    /** The names of the available kinds of Evaluator. */
+    String MOBILITY = "mobility", TERRITORY = "territory";
+
+    /** Return a new Evaluator of the kind named NAME (MOBILITY or
+     *  TERRITORY). */
+    static Evaluator create(String name) {
+        switch (name) {
+        case MOBILITY:
+            return board -> board.countMoves(Piece.WHITE)
+                - board.countMoves(Piece.BLACK);
+        case TERRITORY:
+            return new TerritoryEvaluator();
+        default:
+            throw Utils.error("unknown evaluator: %s", name);
+        }
+    }
+
+}
@@ -99,7 +99,7 @@ class GUI extends TopLevel implements View, Reporter {
     }
 
     @Override
-    public void update(Board board) {
+    public void update(BoardSnapshot board) {
         _widget.update(board);
     }
 
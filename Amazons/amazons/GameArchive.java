@@ -0,0 +1,128 @@
+package amazons;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static amazons.GameRecorder.GAME;
+import static amazons.GameRecorder.HEADER;
+import static amazons.GameRecorder.MAGIC;
+import static amazons.GameRecorder.RECORD;
+
+/** A read-only view of a game-record file written by GameRecorder.
+ *  The file is memory-mapped, and opening it only finds where each game
+ *  starts (skipping from one game's header record to the next), so any
+ *  game can then be read, and the position after any number of its
+ *  moves set up, directly from the mapping, without parsing.  Files are
+ *  limited to 2 GB (some 8 million games).  A GameArchive may be shared
+ *  by several threads.
+ *  @author Ben Chen
+ */
+class GameArchive {
+
+    /** The archive in FILE.  Throws IllegalArgumentException if FILE is
+     *  not a game-record file. */
+    GameArchive(File file) throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw Utils.error("%s is too large", file);
+            }
+            _records = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                   channel.size());
+        }
+        if (_records.capacity() < HEADER || _records.getLong(0) != MAGIC) {
+            throw Utils.error("%s is not a game record", file);
+        }
+        int[] starts = new int[INITIAL_GAMES];
+        int size = 0;
+        int posn = HEADER;
+        while (posn < _records.capacity()) {
+            if (posn + RECORD > _records.capacity()
+                || (_records.get(posn) & 0xff) != GAME) {
+                throw Utils.error("%s is corrupt at byte %d", file, posn);
+            }
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * size);
+            }
+            starts[size] = posn;
+            size += 1;
+            posn += RECORD * (1 + (_records.get(posn + 2) & 0xff));
+        }
+        if (posn != _records.capacity()) {
+            throw Utils.error("%s is truncated", file);
+        }
+        _starts = Arrays.copyOf(starts, size);
+    }
+
+    /** Return the number of games. */
+    int size() {
+        return _starts.length;
+    }
+
+    /** Return the number of moves in game number GAME (numbered from
+     *  0). */
+    int length(int game) {
+        return _records.get(_starts[game] + 2) & 0xff;
+    }
+
+    /** Return the winner of game number GAME, or null if it was
+     *  unfinished. */
+    Piece winner(int game) {
+        switch (_records.get(_starts[game] + 1)) {
+        case 1:
+            return Piece.WHITE;
+        case 2:
+            return Piece.BLACK;
+        default:
+            return null;
+        }
+    }
+
+    /** Return move number PLY (numbered from 0) of game number GAME,
+     *  packed as by Move.pack. */
+    int move(int game, int ply) {
+        if (ply < 0 || ply >= length(game)) {
+            throw Utils.error("game %d has no move %d", game, ply);
+        }
+        int posn = _starts[game] + RECORD * (ply + 1);
+        return Move.pack(_records.get(posn) & 0xff,
+                         _records.get(posn + 1) & 0xff,
+                         _records.get(posn + 2) & 0xff);
+    }
+
+    /** Set BOARD to the position in game number GAME after its first PLY
+     *  moves, and return it.  Throws IllegalArgumentException if one of
+     *  those moves is illegal. */
+    Board position(int game, int ply, Board board) {
+        if (ply < 0 || ply > length(game)) {
+            throw Utils.error("game %d has no move %d", game, ply);
+        }
+        board.init();
+        for (int k = 0; k < ply; k += 1) {
+            int move = move(game, k);
+            if (!board.isLegal(move)) {
+                throw Utils.error("game %d has an illegal move %d", game, k);
+            }
+            board.makeMove(move);
+        }
+        return board;
+    }
+
+    /** Return the position in game number GAME after its first PLY
+     *  moves, as for position(GAME, PLY, BOARD). */
+    Board position(int game, int ply) {
+        return position(game, ply, new Board());
+    }
+
+    /** The initial length of the table of game starts. */
+    private static final int INITIAL_GAMES = 1024;
+
+    /** The mapped file. */
+    private final MappedByteBuffer _records;
+    /** The offsets of the header records of the games, in order. */
+    private final int[] _starts;
+}
@@ -0,0 +1,195 @@
+package amazons;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/** Appends finished games to a game-record file.  record encodes a game
+ *  and queues it; a background thread takes whatever games have been
+ *  queued, and writes them with a single write, so the threads playing
+ *  games never wait for the file (unless QUEUE games are already
+ *  waiting).  A GameRecorder may be shared by several threads.
+ *
+ *  The file holds the eight bytes of MAGIC, and then the games, each a
+ *  header record followed by one record per move.  Each record is
+ *  three bytes.  A move record holds the indices of the squares moved
+ *  from, moved to, and the spear's destination; a header record holds
+ *  GAME, the winner (0 for none, 1 for White, 2 for Black), and the
+ *  number of moves.  All games start from the initial position.
+ *  GameArchive reads such files.
+ *  @author Ben Chen
+ */
+class GameRecorder implements Closeable {
+
+    /** The first bytes of a game-record file. */
+    static final long MAGIC = 0x416d617a47616d65L;
+
+    /** The size of the file header and of one record, in bytes. */
+    static final int HEADER = 8, RECORD = 3;
+
+    /** The first byte of a game's header record, which is never a square
+     *  index. */
+    static final int GAME = 0xff;
+
+    /** A recorder appending to FILE, which is created (with its header)
+     *  if it does not exist or is empty.  Throws IllegalArgumentException
+     *  if FILE exists and is not a game-record file. */
+    GameRecorder(File file) throws IOException {
+        _channel = FileChannel.open(file.toPath(), CREATE, WRITE, APPEND);
+        if (_channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER).putLong(MAGIC);
+            header.flip();
+            write(header);
+        } else {
+            try {
+                new GameArchive(file);
+            } catch (IllegalArgumentException excp) {
+                _channel.close();
+                throw excp;
+            }
+        }
+        _writer = new Thread(this::writeGames, "recorder");
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    /** Queue the game played on BOARD, which started from the initial
+     *  position, to be written, recording its winner as WINNER (null if
+     *  it is unfinished).  Throws IllegalStateException if I am
+     *  closed or writing has failed. */
+    void record(Board board, Piece winner) {
+        int n = board.numMoves();
+        byte[] game = new byte[RECORD * (n + 1)];
+        game[0] = (byte) GAME;
+        game[1] = (byte) (winner == Piece.WHITE ? 1
+                          : winner == Piece.BLACK ? 2 : 0);
+        game[2] = (byte) n;
+        for (int k = 0; k < n; k += 1) {
+            int move = board.move(k);
+            game[RECORD * (k + 1)] = (byte) Move.fromIndex(move);
+            game[RECORD * (k + 1) + 1] = (byte) Move.toIndex(move);
+            game[RECORD * (k + 1) + 2] = (byte) Move.spearIndex(move);
+        }
+        synchronized (this) {
+            if (_closed || _failure != null) {
+                throw new IllegalStateException("game recorder is closed",
+                                                _failure);
+            }
+            try {
+                _queue.put(game);
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(excp);
+            }
+            _recorded += 1;
+        }
+    }
+
+    /** Return the number of games recorded through me. */
+    synchronized int recorded() {
+        return _recorded;
+    }
+
+    /** Write all queued games and close the file.  Throws the first
+     *  IOException from writing, if any. */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+        }
+        try {
+            _queue.put(END);
+            _writer.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        } finally {
+            _channel.close();
+        }
+        if (_failure != null) {
+            throw _failure;
+        }
+    }
+
+    /** Body of the writing thread: write the queued games in batches
+     *  until END is taken. */
+    private void writeGames() {
+        ArrayList<byte[]> batch = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+        boolean done = false;
+        while (!done) {
+            try {
+                batch.add(_queue.take());
+            } catch (InterruptedException excp) {
+                continue;
+            }
+            _queue.drainTo(batch);
+            for (byte[] game : batch) {
+                if (game == END) {
+                    done = true;
+                    break;
+                }
+                if (buffer.remaining() < game.length) {
+                    flush(buffer);
+                }
+                buffer.put(game);
+            }
+            flush(buffer);
+            batch.clear();
+        }
+    }
+
+    /** Write the contents of BUFFER, and clear it.  After a failure,
+     *  drop the contents. */
+    private void flush(ByteBuffer buffer) {
+        buffer.flip();
+        if (_failure == null) {
+            try {
+                write(buffer);
+            } catch (IOException excp) {
+                _failure = excp;
+            }
+        }
+        buffer.clear();
+    }
+
+    /** Write all of BUFFER to the file. */
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            _channel.write(buffer);
+        }
+    }
+
+    /** The most games waiting to be written before record waits. */
+    private static final int QUEUE = 1024;
+    /** The size of the writing thread's buffer, which holds a few
+     *  hundred games. */
+    private static final int BUFFER = 1 << 16;
+    /** Queued to tell the writing thread to finish. */
+    private static final byte[] END = new byte[0];
+
+    /** The file written. */
+    private final FileChannel _channel;
+    /** The encoded games waiting to be written. */
+    private final BlockingQueue<byte[]> _queue =
+        new ArrayBlockingQueue<>(QUEUE);
+    /** The thread writing the games. */
+    private final Thread _writer;
+    /** True once close has been called. */
+    private boolean _closed;
+    /** The games recorded. */
+    private int _recorded;
+    /** The first failure to write, or null. */
+    private volatile IOException _failure;
+}
@@ -1,9 +1,13 @@
 package amazons;
 
 import java.util.List;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 
 import static amazons.Utils.error;
@@ -15,14 +19,58 @@ import ucb.util.CommandArgs;
  */
 public class Main {
 
-    /** The main program.  ARGS may contain the option --display. */
+    /** The main program.  ARGS may contain the option --display,
+     *  --tt=N to give the AI's transposition table N megabytes,
+     *  --movetime=S and --gametime=S to limit the AI to S seconds per
+     *  move and per game, --depth=N to make it search N plies
+     *  regardless of time, --threads=N to make it search with N
+     *  threads, --eval=NAME to make it score positions with the
+     *  evaluator NAME (mobility or territory), --split to make it search
+     *  queen moves and spear throws as separate plies, --beam=K1,K2,...
+     *  to make it search only the K1 moves that look best at nodes with
+     *  one ply left, K2 at nodes with two, and so on (see AI.setBeam),
+     *  --lmr to make it search late moves to reduced depth first,
+     *  --book=FILE to make it play from the opening book in FILE (see
+     *  OpeningBookBuilder), --ponder to make it think on its opponent's
+     *  time, and --stats to make it report statistics on each search.
+     *  --record=FILE appends the games played to the game-record file
+     *  FILE (see GameRecorder).  With --perft=N, it instead reports the
+     *  perft counts (see Perft) to depth N from the initial position,
+     *  using --threads threads (default: the number of processors), and
+     *  exits.  With --analyze, it instead reads positions (see
+     *  Board.notation) one per line from the input, analyzes them with
+     *  the AI on --workers=N threads (default: the number of
+     *  processors), each searching for --movetime seconds or to --depth,
+     *  prints the results in order (see BatchAnalysis), and exits.  With
+     *  --mcts, the automated player uses Monte Carlo tree search instead,
+     *  with --playouts=N to make it play N playouts per move regardless
+     *  of time; it takes --movetime, --gametime, and --threads as
+     *  well. */
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --log={0,1} --={0,2}", args);
+            new CommandArgs("--display --log={0,1} --tt={0,1}"
+                            + " --movetime={0,1} --gametime={0,1}"
+                            + " --depth={0,1} --threads={0,1}"
+                            + " --eval={0,1} --split --mcts"
+                            + " --beam={0,1} --lmr"
+                            + " --playouts={0,1} --book={0,1} --ponder"
+                            + " --perft={0,1} --stats --record={0,1}"
+                            + " --analyze --workers={0,1}"
+                            + " --={0,2}",
+                            args);
         if (!options.ok()) {
             System.err.println("Usage: java amazons.Main [--display]"
-                               + " [--log=FILE] [INPUT [OUTPUT]]");
+                               + " [--log=FILE] [--tt=MEGABYTES]"
+                               + " [--movetime=SECONDS]"
+                               + " [--gametime=SECONDS] [--depth=N]"
+                               + " [--threads=N] [--eval=NAME]"
+                               + " [--split] [--beam=K1,K2,...] [--lmr]"
+                               + " [--book=FILE] [--ponder]"
+                               + " [--stats] [--record=FILE]"
+                               + " [--mcts] [--playouts=N] [--perft=N]"
+                               + " [--analyze [--workers=N]]"
+                               + " [INPUT [OUTPUT]]");
             System.exit(1);
         }
 
@@ -41,6 +89,32 @@ public class Main {
             }
         }
 
+        if (options.contains("--perft")) {
+            int threads = intOption(options, "--threads",
+                                    Runtime.getRuntime()
+                                    .availableProcessors());
+            Perft.run(new Board(), intOption(options, "--perft", 1),
+                      Math.max(threads, 1), new TextReporter());
+            System.exit(0);
+        }
+
+        if (options.contains("--analyze")) {
+            int workers = intOption(options, "--workers",
+                                    Runtime.getRuntime()
+                                    .availableProcessors());
+            try {
+                BatchAnalysis.run(
+                    new BufferedReader(new InputStreamReader(System.in)),
+                    System.out, alphaBetaPlayer(options),
+                    Math.max(workers, 1));
+            } catch (IOException excp) {
+                System.err.printf("Could not read positions: %s%n",
+                                  excp.getMessage());
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+
         Controller control = getController(options);
         System.out.println("Amazons 61B, version 1.0");
 
@@ -77,12 +151,105 @@ public class Main {
         log = null;
         if (options.contains("--log")) {
             try {
-                log = new PrintStream(options.getFirst("--log"));
+                log = new PrintStream(new BufferedOutputStream(
+                    new FileOutputStream(options.getFirst("--log"))));
             } catch (IOException excp) {
                 throw error("Could not open log file");
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer, new AI());
+        Player autoPlayer;
+        if (options.contains("--mcts")) {
+            autoPlayer = monteCarloPlayer(options);
+        } else {
+            autoPlayer = alphaBetaPlayer(options);
+        }
+
+        Controller control =
+            new Controller(view, log, reporter, manualPlayer, autoPlayer);
+        if (options.contains("--record")) {
+            try {
+                control.setRecorder(
+                    new GameRecorder(new File(options.getFirst("--record"))));
+            } catch (IOException excp) {
+                throw error("Could not open game record");
+            }
+        }
+        return control;
+    }
+
+    /** Return an AI template configured as indicated by OPTIONS. */
+    private static AI alphaBetaPlayer(CommandArgs options) {
+        AI autoPlayer = new AI();
+        if (options.contains("--tt")) {
+            autoPlayer.setTableSize(intOption(options, "--tt", 0));
+        }
+        if (options.contains("--movetime") || options.contains("--gametime")) {
+            autoPlayer.setTimeLimits(
+                1000L * intOption(options, "--movetime",
+                                  (int) (AI.DEFAULT_MOVE_TIME / 1000)),
+                1000L * intOption(options, "--gametime",
+                                  (int) (AI.DEFAULT_GAME_TIME / 1000)));
+        }
+        if (options.contains("--depth")) {
+            autoPlayer.setDepth(intOption(options, "--depth", 0));
+        }
+        if (options.contains("--threads")) {
+            autoPlayer.setThreads(intOption(options, "--threads", 1));
+        }
+        if (options.contains("--eval")) {
+            autoPlayer.setEvaluator(options.getFirst("--eval"));
+        }
+        autoPlayer.setSplitPly(options.contains("--split"));
+        if (options.contains("--beam")) {
+            autoPlayer.setBeam(AI.beamWidths(options.getFirst("--beam")));
+        }
+        autoPlayer.setReductions(options.contains("--lmr"));
+        autoPlayer.setPonder(options.contains("--ponder"));
+        autoPlayer.setReportStats(options.contains("--stats"));
+        if (options.contains("--book")) {
+            try {
+                autoPlayer.setBook(
+                    new OpeningBook(new File(options.getFirst("--book"))));
+            } catch (IOException excp) {
+                throw error("Could not read opening book");
+            }
+        }
+        return autoPlayer;
+    }
+
+    /** Return a MonteCarloAI template configured as indicated by
+     *  OPTIONS. */
+    private static MonteCarloAI monteCarloPlayer(CommandArgs options) {
+        MonteCarloAI autoPlayer = new MonteCarloAI();
+        if (options.contains("--movetime") || options.contains("--gametime")) {
+            autoPlayer.setTimeLimits(
+                1000L * intOption(options, "--movetime",
+                                  (int) (AI.DEFAULT_MOVE_TIME / 1000)),
+                1000L * intOption(options, "--gametime",
+                                  (int) (AI.DEFAULT_GAME_TIME / 1000)));
+        }
+        if (options.contains("--playouts")) {
+            autoPlayer.setPlayouts(intOption(options, "--playouts", 0));
+        }
+        if (options.contains("--threads")) {
+            autoPlayer.setThreads(intOption(options, "--threads", 1));
+        }
+        return autoPlayer;
+    }
+
+    /** Return the integer value of option OPTION in OPTIONS, or DEFLT if
+     *  it is absent. */
+    private static int intOption(CommandArgs options, String option,
+                                 int deflt) {
+        if (!options.contains(option)) {
+            return deflt;
+        }
+        try {
+            return Integer.parseInt(options.getFirst(option));
+        } catch (NumberFormatException excp) {
+            throw error("Bad value for %s: %s", option,
+                        options.getFirst(option));
+        }
     }
 }
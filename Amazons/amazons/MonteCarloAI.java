@@ -0,0 +1,452 @@
+package amazons;
+
+import static amazons.Piece.WHITE;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A Player that chooses moves by Monte Carlo tree search.
+ *
+ *  The tree treats the queen move and the spear throw of each move as
+ *  separate levels, so that no node has more than about 140 children.
+ *  Each descent from the root picks children by UCT (trying every child
+ *  once, in random order, before revisiting any), until it reaches a
+ *  node that has not yet been visited often enough to be expanded.  From
+ *  there it plays a few pseudo-random moves and scores the result with
+ *  a TerritoryEvaluator, converted to a probability that WHITE wins; a
+ *  finished game scores 1 or 0.  The chosen move is the most visited.
+ *
+ *  Several threads may descend the tree at once.  Each takes a visit to
+ *  the nodes it passes through on the way down (a "virtual loss", since
+ *  the visit counts for nothing until the descent's result is added on
+ *  the way back up), which steers the other threads elsewhere.  After
+ *  each move, the subtree under the moves actually played is kept for
+ *  the next search.
+ *  @author Ben Chen
+ */
+class MonteCarloAI extends Player {
+
+    /** A new MonteCarloAI with no piece or controller (intended to
+     *  produce a template). */
+    MonteCarloAI() {
+        this(null, null);
+    }
+
+    /** A new MonteCarloAI playing PIECE under control of CONTROLLER. */
+    MonteCarloAI(Piece piece, Controller controller) {
+        super(piece, controller);
+        _moveTime = AI.DEFAULT_MOVE_TIME;
+        _gameTime = AI.DEFAULT_GAME_TIME;
+        _threads = 1;
+    }
+
+    /** A new MonteCarloAI playing PIECE under control of CONTROLLER, with
+     *  the same settings as MODEL. */
+    private MonteCarloAI(Piece piece, Controller controller,
+                         MonteCarloAI model) {
+        this(piece, controller);
+        _moveTime = model._moveTime;
+        _gameTime = model._gameTime;
+        _playouts = model._playouts;
+        _threads = model._threads;
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MonteCarloAI(piece, controller, this);
+    }
+
+    /** Limit players created from this one hereafter to MOVETIME
+     *  milliseconds per move and GAMETIME milliseconds for all their moves
+     *  in a game. */
+    void setTimeLimits(long moveTime, long gameTime) {
+        if (moveTime <= 0 || gameTime <= 0) {
+            throw Utils.error("time limits must be positive");
+        }
+        _moveTime = moveTime;
+        _gameTime = gameTime;
+    }
+
+    /** Make players created from this one hereafter make exactly
+     *  PLAYOUTS descents of the tree per move, ignoring time limits, or
+     *  use the time limits if PLAYOUTS is 0. */
+    void setPlayouts(int playouts) {
+        if (playouts < 0) {
+            throw Utils.error("number of playouts must not be negative");
+        }
+        _playouts = playouts;
+    }
+
+    /** Make players created from this one hereafter search with THREADS
+     *  threads. */
+    void setThreads(int threads) {
+        if (threads < 1) {
+            throw Utils.error("need at least one thread");
+        }
+        _threads = threads;
+    }
+
+    /** Return the number of descents from the root I have made. */
+    @Override
+    long nodes() {
+        return _descents;
+    }
+
+    @Override
+    String myMove() {
+        Move move = findMove();
+        _controller.reportMove(move);
+        return move.toString();
+    }
+
+    /** Shut down my thread pool, if I have one.  My workers are dropped
+     *  with it, and made afresh if I search again. */
+    @Override
+    void close() {
+        if (_pool != null) {
+            _pool.shutdown();
+            _pool = null;
+        }
+        _workers = null;
+    }
+
+    /** Return a move for me from the current position, assuming there
+     *  is a move. */
+    private Move findMove() {
+        long start = System.nanoTime();
+        Board position = board();
+        if (_workers == null) {
+            _workers = new Worker[_threads];
+            for (int i = 0; i < _threads; i += 1) {
+                _workers[i] = new Worker();
+            }
+            if (_threads > 1) {
+                _pool = new ForkJoinPool(_threads - 1);
+            }
+        }
+        long deadline = start + allocateTime(position);
+        for (Worker worker : _workers) {
+            worker.setRoot(position, _controller.randInt(Integer.MAX_VALUE),
+                           deadline);
+        }
+        reuseTree(position);
+        int limit = _playouts > 0 ? _playouts : Integer.MAX_VALUE;
+        _remaining.set(limit);
+        if (_pool == null) {
+            _workers[0].run();
+        } else {
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[_threads - 1];
+            for (int i = 1; i < _threads; i += 1) {
+                tasks[i - 1] = _pool.submit(_workers[i]);
+            }
+            _workers[0].run();
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+        _descents += limit - Math.max(_remaining.get(), 0);
+        chargeTime(start);
+
+        Node queen = mostVisited(_root);
+        Node spear = queen == null ? null : mostVisited(queen);
+        if (spear != null) {
+            return Move.mv(spear.move);
+        }
+        int m = queen == null ? _root.moves[0] : queen.move;
+        int from = Move.fromIndex(m);
+        return Move.mv(Move.pack(from, Move.toIndex(m), from));
+    }
+
+    /** Make _root the node for POSITION: the node reached from the old
+     *  root by the moves made since, if the old root's position led to
+     *  POSITION and that node exists, and otherwise a new node.  Expand
+     *  it if need be. */
+    private void reuseTree(Board position) {
+        Node root = null;
+        int played = position.numMoves() - _rootMoves;
+        if (_root != null && played >= 0) {
+            Board earlier = new Board(position);
+            int[] moves = new int[played];
+            for (int i = played - 1; i >= 0; i -= 1) {
+                moves[i] = earlier.lastPackedMove();
+                earlier.undo();
+            }
+            if (earlier.key() == _rootKey) {
+                root = _root;
+                for (int i = 0; i < played && root != null; i += 1) {
+                    int m = moves[i];
+                    root = child(root, Move.pack(Move.fromIndex(m),
+                                                 Move.toIndex(m),
+                                                 Move.toIndex(m)));
+                    root = root == null ? null : child(root, m);
+                }
+            }
+        }
+        if (root == null) {
+            root = new Node(0, null);
+        }
+        if (root.moves == null) {
+            _workers[0].expand(root, new Board(position));
+        }
+        _root = root;
+        _rootKey = position.key();
+        _rootMoves = position.numMoves();
+    }
+
+    /** Return the child of NODE reached by the packed move MOVE, or null
+     *  if there is none. */
+    private static Node child(Node node, int move) {
+        if (node.moves != null) {
+            for (int i = 0; i < node.moves.length; i += 1) {
+                if (node.moves[i] == move) {
+                    return node.children[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Return the most visited child of NODE, or null if it has none. */
+    private static Node mostVisited(Node node) {
+        Node best = null;
+        if (node.children != null) {
+            for (Node child : node.children) {
+                if (child != null
+                    && (best == null || child.visits > best.visits)) {
+                    best = child;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Return the number of nanoseconds to spend on a move from
+     *  POSITION (see Player.timeShare), or an unlimited time if the
+     *  number of playouts is fixed. */
+    private long allocateTime(Board position) {
+        if (_playouts > 0) {
+            return Long.MAX_VALUE / 2;
+        }
+        return timeShare(position, _moveTime, _gameTime);
+    }
+
+    /** A node of the search tree, standing for the position reached
+     *  by a queen move or a spear throw from its parent's. */
+    private static class Node {
+
+        /** A node reached by the packed move MOVE, made by MOVER.  A
+         *  queen move FROM-TO by itself is packed as Move.pack(FROM, TO,
+         *  TO), as by Board.generateQueenMoves. */
+        Node(int move, Piece mover) {
+            this.move = move;
+            this.mover = mover;
+        }
+
+        /** The move from the parent to me, or 0 at the root. */
+        final int move;
+        /** The side that made MOVE. */
+        final Piece mover;
+
+        /** The number of descents through me, including unfinished
+         *  ones.  Guarded by my parent. */
+        int visits;
+        /** The total results for MOVER (1 for a win, 0 for a loss) of
+         *  finished descents through me.  Guarded by my parent. */
+        double wins;
+
+        /** The moves from my position, in random order, or null if I
+         *  have not been expanded.  Guarded by me. */
+        int[] moves;
+        /** CHILDREN[i] is the child reached by MOVES[i], or null if it
+         *  has not been visited.  Guarded by me. */
+        Node[] children;
+        /** The total visits to my children.  Guarded by me. */
+        int childVisits;
+        /** The number of descents that ended at me before I was
+         *  expanded.  Guarded by me. */
+        int playouts;
+    }
+
+    /** The state of one searching thread. */
+    private class Worker implements Runnable {
+
+        /** Prepare to search from POSITION until System.nanoTime reaches
+         *  DEADLINE, using pseudo-random numbers seeded with SEED. */
+        void setRoot(Board position, long seed, long deadline) {
+            _position.copy(position);
+            _random.setSeed(seed);
+            _deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            while (System.nanoTime() < _deadline
+                   && _remaining.getAndDecrement() > 0) {
+                descend();
+            }
+        }
+
+        /** Make one descent from the root, and add its result to the
+         *  nodes passed through. */
+        private void descend() {
+            Board board = _board;
+            board.copy(_position);
+            Node node = _root;
+            int depth = 0;
+            while (board.winner() == null) {
+                Node child;
+                synchronized (node) {
+                    if (node.moves == null
+                        && node.playouts + 1 >= EXPAND_VISITS) {
+                        expand(node, board);
+                    }
+                    if (node.moves == null) {
+                        node.playouts += 1;
+                        break;
+                    }
+                    child = select(node, board.turn());
+                }
+                int m = child.move;
+                if (board.spearPending()) {
+                    board.throwSpear(Move.spearIndex(m));
+                } else {
+                    board.makeQueenMove(Move.fromIndex(m), Move.toIndex(m));
+                }
+                if (depth == _path.length) {
+                    _path = Arrays.copyOf(_path, 2 * depth);
+                }
+                _path[depth] = child;
+                depth += 1;
+                node = child;
+            }
+            double result = playout(board);
+            Node parent = _root;
+            for (int i = 0; i < depth; i += 1) {
+                Node child = _path[i];
+                synchronized (parent) {
+                    child.wins += child.mover == WHITE ? result : 1 - result;
+                }
+                parent = child;
+                _path[i] = null;
+            }
+        }
+
+        /** Return the child of NODE to descend to, creating it if need be,
+         *  and count a visit to it.  MOVER is the side to move at NODE.
+         *  Must be called holding NODE's lock. */
+        private Node select(Node node, Piece mover) {
+            int best = -1;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            double logVisits = Math.log(Math.max(1, node.childVisits));
+            for (int i = 0; i < node.children.length; i += 1) {
+                Node child = node.children[i];
+                if (child == null) {
+                    best = i;
+                    node.children[i] = new Node(node.moves[i], mover);
+                    break;
+                }
+                double value = child.wins / child.visits
+                    + EXPLORATION * Math.sqrt(logVisits / child.visits);
+                if (value > bestValue) {
+                    best = i;
+                    bestValue = value;
+                }
+            }
+            Node child = node.children[best];
+            child.visits += 1;
+            node.childVisits += 1;
+            return child;
+        }
+
+        /** Give NODE, whose position is that of BOARD, its list of moves
+         *  (queen moves, or spear throws if a spear is pending), in random
+         *  order, and room for its children.  NODE must be locked, or not
+         *  yet shared. */
+        void expand(Node node, Board board) {
+            int n = board.spearPending() ? board.generateSpears(_moves)
+                : board.generateQueenMoves(board.turn(), _moves);
+            int[] moves = Arrays.copyOf(_moves, n);
+            for (int i = n - 1; i > 0; i -= 1) {
+                int j = _random.nextInt(i + 1);
+                int m = moves[i];
+                moves[i] = moves[j];
+                moves[j] = m;
+            }
+            node.children = new Node[n];
+            node.moves = moves;
+        }
+
+        /** Play up to PLAYOUT_MOVES pseudo-random moves on BOARD, starting
+         *  with its pending spear (if any), and return the probability
+         *  that WHITE wins from the resulting position. */
+        private double playout(Board board) {
+            for (int k = 0; k < PLAYOUT_MOVES && board.winner() == null;
+                 k += 1) {
+                if (!board.spearPending()) {
+                    int n = board.generateQueenMoves(board.turn(), _moves);
+                    int m = _moves[_random.nextInt(n)];
+                    board.makeQueenMove(Move.fromIndex(m), Move.toIndex(m));
+                }
+                int n = board.generateSpears(_moves);
+                board.throwSpear(Move.spearIndex(_moves[_random.nextInt(n)]));
+            }
+            if (board.winner() != null) {
+                return board.winner() == WHITE ? 1 : 0;
+            }
+            double score = _evaluator.score(board);
+            return 1 / (1 + Math.exp(-score / SCORE_SCALE));
+        }
+
+        /** The root position. */
+        private final Board _position = new Board();
+        /** The board on which descents and playouts are made. */
+        private final Board _board = new Board();
+        /** The nodes below the root on the current descent. */
+        private Node[] _path = new Node[64];
+        /** Buffer for generated moves. */
+        private final int[] _moves = new int[Board.MAX_MOVES];
+        /** Scores the positions at which playouts stop. */
+        private final Evaluator _evaluator = new TerritoryEvaluator();
+        /** Source of pseudo-random moves and orderings. */
+        private final Random _random = new Random();
+        /** The System.nanoTime value at which to stop. */
+        private long _deadline;
+    }
+
+    /** The UCT exploration constant. */
+    private static final double EXPLORATION = 0.7;
+    /** Number of descents that end at a node before it is expanded. */
+    private static final int EXPAND_VISITS = 4;
+    /** Number of whole moves in a playout. */
+    private static final int PLAYOUT_MOVES = 4;
+    /** Evaluator score at which WHITE's chance of winning is taken to be
+     *  1 / (1 + e^-1), about 73%. */
+    private static final double SCORE_SCALE = 20;
+
+    /** The root of the search tree, or null before the first search. */
+    private Node _root;
+    /** The hash key of _root's position. */
+    private long _rootKey;
+    /** The number of moves made before _root's position. */
+    private int _rootMoves;
+
+    /** My searching threads' states, created when first needed. */
+    private Worker[] _workers;
+    /** Threads that run my workers other than the first, or null if I use
+     *  only one thread or have been closed. */
+    private ForkJoinPool _pool;
+    /** The number of descents still to make in the current search. */
+    private final AtomicInteger _remaining = new AtomicInteger();
+
+    /** Per-move and per-game time limits, in milliseconds. */
+    private long _moveTime, _gameTime;
+    /** Fixed number of descents per move, or 0 to use the time limits. */
+    private int _playouts;
+    /** Number of threads to search with. */
+    private int _threads;
+    /** Total descents made for my moves. */
+    private long _descents;
+}
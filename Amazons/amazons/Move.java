@@ -1,5 +1,6 @@
 package amazons;
 
+import java.util.HashMap;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -10,6 +11,12 @@ import static amazons.Square.SQ;
  *  and unique: there is only one move object for each possible move
  *  (generated by the factory method  mv, the constructor being private).
  *  As for Squares, you can freely use == to compare Moves.
+ *
+ *  The compact form of a move is a packed int (see pack), which is what
+ *  Board, the searchers, and the Controller work with; a Move is a
+ *  flyweight view of one, made on demand by mv.  The cache of Moves
+ *  grows only as moves are first asked for, and a Move's notation is
+ *  formatted only when it is first printed.
  *  @author P. N. Hilfinger
  */
 final class Move {
@@ -37,58 +44,158 @@ final class Move {
         return _spear;
     }
 
-    /** Return the unique Move FROM-TO(SPEAR). */
+    /** Return the unique Move FROM-TO(SPEAR).  May be called from
+     *  several threads at once. */
     static Move mv(Square from, Square to, Square spear) {
-        if (MOVES[from.index()][to.index()][spear.index()] == null) {
-            MOVES[from.index()][to.index()][spear.index()] =
-                new Move(from, to, spear);
+        return mv(pack(from.index(), to.index(), spear.index()));
+    }
+
+    /** Return the unique Move whose packed form (see pack) is MOVE.
+     *  May be called from several threads at once. */
+    static Move mv(int move) {
+        int f = fromIndex(move), t = toIndex(move), s = spearIndex(move);
+        if (Square.direction(f, t) < 0 || Square.direction(t, s) < 0) {
+            synchronized (MOVES) {
+                return OTHER_MOVES.computeIfAbsent(move, m ->
+                    new Move(sq(f), sq(t), sq(s)));
+            }
+        }
+        int row = f * SLOTS + slot(f, t), col = slot(t, s);
+        Move[] moves = MOVES[row];
+        Move result = moves == null ? null : moves[col];
+        if (result == null) {
+            synchronized (MOVES) {
+                if (MOVES[row] == null) {
+                    MOVES[row] = new Move[SLOTS];
+                }
+                result = MOVES[row][col];
+                if (result == null) {
+                    result = new Move(sq(f), sq(t), sq(s));
+                    MOVES[row][col] = result;
+                }
+            }
         }
-        return MOVES[from.index()][to.index()][spear.index()];
+        return result;
+    }
+
+    /** Return the position of the square with index TO among the
+     *  queen moves from the square with index FROM: 9 * direction +
+     *  distance - 1, where direction is as for Square.queenMove. */
+    private static int slot(int from, int to) {
+        int dir = Square.direction(from, to);
+        int dist = Math.max(Math.abs(from % Board.SIZE - to % Board.SIZE),
+                            Math.abs(from / Board.SIZE - to / Board.SIZE));
+        return dir * (Board.SIZE - 1) + dist - 1;
+    }
+
+    /** Return the move from the square with index FROM to the square with
+     *  index TO, throwing a spear to the square with index SPEAR, packed
+     *  into a single int (one byte per square index). */
+    static int pack(int from, int to, int spear) {
+        return from | to << 8 | spear << 16;
+    }
+
+    /** Return the index of the square moved from in the packed move
+     *  MOVE. */
+    static int fromIndex(int move) {
+        return move & 0xff;
+    }
+
+    /** Return the index of the square moved to in the packed move MOVE. */
+    static int toIndex(int move) {
+        return (move >>> 8) & 0xff;
+    }
+
+    /** Return the index of the spear's destination in the packed move
+     *  MOVE. */
+    static int spearIndex(int move) {
+        return move >>> 16;
+    }
+
+    /** Return my packed form (see pack). */
+    int packed() {
+        return pack(_from.index(), _to.index(), _spear.index());
+    }
+
+    /** Return the standard notation, FROM-TO(SPEAR), for the packed
+     *  move MOVE. */
+    static String toString(int move) {
+        return sq(fromIndex(move)) + "-" + sq(toIndex(move))
+            + "(" + sq(spearIndex(move)) + ")";
+    }
+
+    /** Return the packed form of the move denoted by STR, if STR denotes
+     *  a move with valid syntax in which the piece move and spear throw
+     *  are proper queen moves, and 0 (which is never such a move)
+     *  otherwise. */
+    static int parse(String str) {
+        Matcher moveMatcher = MOVE_MATCHER.get().reset(str);
+        if (moveMatcher.matches()) {
+            int k = moveMatcher.group(1) != null ? 1 : 4;
+            Square from = sq(moveMatcher.group(k)),
+                to = sq(moveMatcher.group(k + 1)),
+                spear = sq(moveMatcher.group(k + 2));
+            if (from.isQueenMove(to) && to.isQueenMove(spear)) {
+                return pack(from.index(), to.index(), spear.index());
+            }
+        }
+        return 0;
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax in which the piece move and spear throw are proper
      *  queen moves, and null otherwise. */
     static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            int k = _moveMatcher.group(1) != null ? 1 : 4;
-            Square from = sq(_moveMatcher.group(k)),
-                to = sq(_moveMatcher.group(k + 1)),
-                spear = sq(_moveMatcher.group(k + 2));
-            if (from.isQueenMove(to) && to.isQueenMove(spear)) {
-                return mv(from, to, spear);
-            }
-        }
-        return null;
+        int move = parse(str);
+        return move == 0 ? null : mv(move);
     }
 
     /** Return true iff STR has the right format for a Move, ignoring whether
      *  its piece-move and spear-throw are valid queen moves. */
     static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+        return MOVE_MATCHER.get().reset(str).matches();
     }
 
     @Override
     public String toString() {
-        return _str;
+        String str = _str;
+        if (str == null) {
+            str = _str = toString(packed());
+        }
+        return str;
     }
 
     /** Construct the Move FROM-TO(SPEAR). */
     private Move(Square from, Square to, Square spear) {
         _from = from; _to = to; _spear = spear;
-        _str = String.format("%s-%s(%s)", from, to, spear);
     }
 
-    /** The cache of all Moves created. */
-    private static final Move[][][] MOVES = new Move[100][100][100];
+    /** The number of squares a queen move can reach on an empty board,
+     *  counting squares off the board: 8 directions of up to 9 steps. */
+    private static final int SLOTS = 8 * (Board.SIZE - 1);
+
+    /** The cache of all Moves created, in rows that are allocated when
+     *  first needed: the Move with packed form m is in row
+     *  fromIndex(m) * SLOTS + slot(fromIndex(m), toIndex(m)), at column
+     *  slot(toIndex(m), spearIndex(m)).  Rows and entries are set only
+     *  while holding its lock; since a Move's squares are final, a Move
+     *  read from it without the lock is fully constructed. */
+    private static final Move[][] MOVES =
+        new Move[Board.SIZE * Board.SIZE * SLOTS][];
+    /** The Moves created whose piece move or spear throw is not a queen
+     *  move (which are never legal), by packed form.  Guarded by the
+     *  lock on MOVES. */
+    private static final HashMap<Integer, Move> OTHER_MOVES =
+        new HashMap<>();
 
     /** The components of a Move. */
     private final Square _from, _to, _spear;
-    /** The printed form of a Move. */
+    /** The printed form of a Move, or null if it has yet to be
+     *  formatted.  Threads racing to format it compute equal Strings,
+     *  and Strings are safe to publish without synchronization. */
     private String _str;
-    /**  A utility Matcher for moves, using MOVE_PATTERN. */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
+    /** Utility Matchers for moves, using MOVE_PATTERN, one per thread. */
+    private static final ThreadLocal<Matcher> MOVE_MATCHER =
+        ThreadLocal.withInitial(() -> MOVE_PATTERN.matcher(""));
 }
 
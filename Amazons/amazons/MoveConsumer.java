@@ -0,0 +1,12 @@
+package amazons;
+
+/** A receiver for moves produced by Board.generateMoves, each packed
+ *  into an int as by Move.pack.
+ *  @author Ben Chen
+ */
+interface MoveConsumer {
+
+    /** Process the packed move MOVE. */
+    void accept(int move);
+
+}
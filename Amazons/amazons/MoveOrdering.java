@@ -0,0 +1,239 @@
+package amazons;
+
+import static amazons.Piece.BLACK;
+import static amazons.Piece.WHITE;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/** The move-ordering heuristics for one Searcher.  Moves are tried in
+ *  this order: the best move stored in the transposition table, the two
+ *  killer moves for the level of the tree (the latest moves to cause a
+ *  cutoff at that distance from the root), the counter-move to the move
+ *  just made (the latest reply to it that caused a cutoff), and then the
+ *  rest by their history scores.  A move's history score grows with the
+ *  square of the remaining depth each time it causes a cutoff anywhere
+ *  in the tree.
+ *  Among moves with equal history, those whose destination or spear
+ *  lands on a square the opponent can reach (in the root position) come
+ *  first.
+ *
+ *  For forward pruning, prune can cut the moves after the first few
+ *  down to the ones Board.moveScore rates best before they are
+ *  sorted.
+ *
+ *  An ordering is used by one thread only, and nothing it does after
+ *  construction allocates.
+ *  @author Ben Chen
+ */
+class MoveOrdering {
+
+    /** One more than the largest level of the tree (see order) that has
+     *  killer moves. */
+    static final int MAX_PLY = 2 * (TranspositionTable.MAX_DEPTH + 1);
+
+    /** History scores are halved once any exceeds this. */
+    static final int MAX_HISTORY = 1 << 26;
+
+    /** Prepare for a new search from POSITION.  Killer moves are
+     *  forgotten and history scores are halved, so that what was learned
+     *  in earlier searches counts for less. */
+    void newSearch(Board position) {
+        for (int[] killers : _killers) {
+            Arrays.fill(killers, 0);
+        }
+        for (int i = 0; i < _history.length; i += 1) {
+            _history[i] >>= 1;
+        }
+        for (boolean[] reach : _reach) {
+            Arrays.fill(reach, false);
+        }
+        for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+            Piece p = position.get(Square.sq(k));
+            if (p == WHITE || p == BLACK) {
+                int side = p == WHITE ? 0 : 1;
+                Iterator<Square> iter = position.reachableFrom(Square.sq(k),
+                                                               null);
+                while (iter.hasNext()) {
+                    _reach[side][iter.next().index()] = true;
+                }
+            }
+        }
+    }
+
+    /** Sort the first N packed moves in MOVES, which are for SIDE at
+     *  level PLY of the tree, into the order they should be searched.
+     *  A Searcher numbers levels so that queen moves and spear throws
+     *  searched separately get levels of their own.
+     *  HASHMOVE is the best move in the transposition table, and
+     *  PREVIOUS is the move just made; either may be 0 for none.  KEYS
+     *  is scratch space for at least N values. */
+    void order(int[] moves, int n, Piece side, int ply, int hashMove,
+               int previous, long[] keys) {
+        int first = orderFirst(moves, n, ply, hashMove, previous);
+        orderRest(moves, first, n, side, keys);
+    }
+
+    /** Do the first part of order(MOVES, N, SIDE, PLY, HASHMOVE,
+     *  PREVIOUS, KEYS): bring to the front, in order, those of the
+     *  transposition-table move, killer moves, and counter-move that are
+     *  among the first N moves, leaving the rest in no particular order.
+     *  Return how many were brought forward.  Since the first few moves
+     *  often cause a cutoff, the rest need only be sorted (by orderRest)
+     *  if the search gets to them. */
+    int orderFirst(int[] moves, int n, int ply, int hashMove,
+                   int previous) {
+        int first = bringForward(moves, n, 0, hashMove);
+        if (ply < MAX_PLY) {
+            first = bringForward(moves, n, first, _killers[ply][0]);
+            first = bringForward(moves, n, first, _killers[ply][1]);
+        }
+        if (previous != 0) {
+            first = bringForward(moves, n, first,
+                                 _counters[counterIndex(previous)]);
+        }
+        return first;
+    }
+
+    /** Do the rest of order for MOVES[FROM .. TO - 1], moves for SIDE:
+     *  sort them by their history scores.  KEYS is scratch space for at
+     *  least TO - FROM values. */
+    void orderRest(int[] moves, int from, int to, Piece side, long[] keys) {
+        boolean[] opponentReach = _reach[side == WHITE ? 1 : 0];
+        int n = to - from;
+        for (int i = 0; i < n; i += 1) {
+            int m = moves[from + i];
+            int score = 2 * _history[historyIndex(m)];
+            if (opponentReach[Move.toIndex(m)]
+                || opponentReach[Move.spearIndex(m)]) {
+                score += 1;
+            }
+            keys[i] = (long) -score << 32 | m;
+        }
+        Arrays.sort(keys, 0, n);
+        for (int i = 0; i < n; i += 1) {
+            moves[from + i] = (int) keys[i];
+        }
+    }
+
+    /** If the packed move M is not 0 and is among MOVES[FIRST .. N - 1],
+     *  swap it into MOVES[FIRST] and return FIRST + 1; otherwise return
+     *  FIRST. */
+    private static int bringForward(int[] moves, int n, int first, int m) {
+        if (m != 0) {
+            for (int i = first; i < n; i += 1) {
+                if (moves[i] == m) {
+                    moves[i] = moves[first];
+                    moves[first] = m;
+                    return first + 1;
+                }
+            }
+        }
+        return first;
+    }
+
+    /** Reorder MOVES[FIRST .. N - 1], packed moves for BOARD (the
+     *  position they are from), so that they start with the K that
+     *  BOARD.moveScore rates best, followed by the others, keeping
+     *  their order otherwise.  Return the number of moves in MOVES to
+     *  search: N if there are no more than K from FIRST on, and
+     *  otherwise FIRST + K.  FIRST is normally the result of
+     *  orderFirst, and the moves kept are then sorted by orderRest.
+     *  KEYS is scratch space for at least N values. */
+    int prune(Board board, int[] moves, int first, int n, int k,
+              long[] keys) {
+        int rest = n - first;
+        if (rest <= k) {
+            return n;
+        }
+        Arrays.fill(_scoreCounts, 0);
+        for (int i = 0; i < rest; i += 1) {
+            int score = Math.max(0, Math.min(board.moveScore(moves[first + i])
+                                             - MIN_MOVE_SCORE,
+                                             _scoreCounts.length - 1));
+            keys[i] = score;
+            _scoreCounts[score] += 1;
+        }
+        int threshold = _scoreCounts.length - 1, above = 0;
+        while (above + _scoreCounts[threshold] < k) {
+            above += _scoreCounts[threshold];
+            threshold -= 1;
+        }
+        int ties = k - above, kept = 0, dropped = 0;
+        for (int i = 0; i < rest; i += 1) {
+            int m = moves[first + i];
+            if (keys[i] > threshold || keys[i] == threshold && ties > 0) {
+                if (keys[i] == threshold) {
+                    ties -= 1;
+                }
+                moves[first + kept] = m;
+                kept += 1;
+            } else {
+                keys[dropped] = m;
+                dropped += 1;
+            }
+        }
+        for (int i = 0; i < dropped; i += 1) {
+            moves[first + k + i] = (int) keys[i];
+        }
+        return first + k;
+    }
+
+    /** Record that MOVE, made at level PLY of the tree (as for order)
+     *  with DEPTH plies left to search, in reply to PREVIOUS (0 if none),
+     *  caused a cutoff. */
+    void cutoff(int move, int ply, int depth, int previous) {
+        if (ply < MAX_PLY && _killers[ply][0] != move) {
+            _killers[ply][1] = _killers[ply][0];
+            _killers[ply][0] = move;
+        }
+        if (previous != 0) {
+            _counters[counterIndex(previous)] = move;
+        }
+        int h = historyIndex(move);
+        _history[h] += depth * depth;
+        if (_history[h] > MAX_HISTORY) {
+            for (int i = 0; i < _history.length; i += 1) {
+                _history[i] >>= 1;
+            }
+        }
+    }
+
+    /** Return the index in _history of the packed move MOVE. */
+    private static int historyIndex(int move) {
+        return Move.fromIndex(move)
+            + SQUARES * (Move.toIndex(move) + SQUARES * Move.spearIndex(move));
+    }
+
+    /** Return the index in _counters for replies to the packed move
+     *  MOVE, which depends on where its amazon and spear landed. */
+    private static int counterIndex(int move) {
+        return Move.toIndex(move) + SQUARES * Move.spearIndex(move);
+    }
+
+    /** The number of squares. */
+    private static final int SQUARES = Board.SIZE * Board.SIZE;
+
+    /** The lowest Board.moveScore that prune tells apart from higher
+     *  ones. */
+    private static final int MIN_MOVE_SCORE = -32;
+
+    /** History scores, indexed by historyIndex. */
+    private final int[] _history = new int[SQUARES * SQUARES * SQUARES];
+
+    /** _killers[p] holds the two killer moves at level p, latest
+     *  first. */
+    private final int[][] _killers = new int[MAX_PLY][2];
+
+    /** Counter-moves, indexed by counterIndex of the move replied to. */
+    private final int[] _counters = new int[SQUARES * SQUARES];
+
+    /** _scoreCounts[s] is the number of moves prune is choosing among
+     *  with Board.moveScore s + MIN_MOVE_SCORE (or with more, for the
+     *  last). */
+    private final int[] _scoreCounts = new int[128];
+
+    /** _reach[0][k] and _reach[1][k] are true iff square k is reachable
+     *  by a white or black amazon, respectively, in the root position. */
+    private final boolean[][] _reach = new boolean[2][SQUARES];
+}
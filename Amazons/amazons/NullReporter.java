@@ -0,0 +1,19 @@
+package amazons;
+
+/** A Reporter that reports nothing.
+ *  @author Ben Chen
+ */
+class NullReporter implements Reporter {
+
+    @Override
+    public void reportError(String format, Object... args) {
+    }
+
+    @Override
+    public void reportNote(String format, Object... args) {
+    }
+
+    @Override
+    public void reportMove(Move move) {
+    }
+}
@@ -6,6 +6,6 @@ package amazons;
 class NullView implements View {
 
     @Override
-    public void update(Board board) {
+    public void update(BoardSnapshot board) {
     }
 }
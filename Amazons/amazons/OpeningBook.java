@@ -0,0 +1,98 @@
+package amazons;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntUnaryOperator;
+
+/** A read-only opening book: for each of a set of positions, identified
+ *  by Board.key(), some good moves with weights.  The book file is
+ *  memory-mapped, and looking up a position reads the mapping directly,
+ *  so a book costs no heap beyond this object and a probe allocates
+ *  nothing.  An OpeningBook may be shared by several threads.
+ *
+ *  The file, written by OpeningBookBuilder, holds the eight bytes of
+ *  MAGIC, the number of entries as an int, and then the entries, ENTRY
+ *  bytes each: a position key (long), a move packed by Move.pack (int),
+ *  and its weight (positive int).  Entries are sorted by key, and
+ *  entries with the same key by decreasing weight.  All numbers are
+ *  big-endian.
+ *  @author Ben Chen
+ */
+class OpeningBook {
+
+    /** The first bytes of a book file. */
+    static final long MAGIC = 0x416d617a426f6f6bL;
+
+    /** The size of the header and of one entry, in bytes. */
+    static final int HEADER = 12, ENTRY = 16;
+
+    /** The book in FILE.  Throws IllegalArgumentException if FILE is not
+     *  a book. */
+    OpeningBook(File file) throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            _book = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                channel.size());
+        }
+        if (_book.capacity() < HEADER || _book.getLong(0) != MAGIC) {
+            throw Utils.error("%s is not an opening book", file);
+        }
+        _size = _book.getInt(8);
+        if ((long) HEADER + (long) ENTRY * _size != _book.capacity()) {
+            throw Utils.error("%s is truncated", file);
+        }
+    }
+
+    /** Return the number of entries. */
+    int size() {
+        return _size;
+    }
+
+    /** Return a move from the book for the position with key KEY, packed
+     *  as by Move.pack, or 0 if the book does not have the position.  If
+     *  it lists several moves, choose among them with probabilities in
+     *  proportion to their weights, using RANDOM, which given a positive
+     *  N, returns a pseudo-random integer in 0 .. N-1. */
+    int probe(long key, IntUnaryOperator random) {
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int total = 0;
+        for (int i = lo; i < _size && key(i) == key; i += 1) {
+            total += weight(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        int roll = random.applyAsInt(total);
+        int i;
+        for (i = lo; roll >= weight(i); i += 1) {
+            roll -= weight(i);
+        }
+        return _book.getInt(HEADER + ENTRY * i + 8);
+    }
+
+    /** Return the key of entry I. */
+    private long key(int i) {
+        return _book.getLong(HEADER + ENTRY * i);
+    }
+
+    /** Return the weight of entry I. */
+    private int weight(int i) {
+        return _book.getInt(HEADER + ENTRY * i + 12);
+    }
+
+    /** The mapped book file. */
+    private final MappedByteBuffer _book;
+    /** The number of entries. */
+    private final int _size;
+}
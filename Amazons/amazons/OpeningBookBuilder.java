@@ -0,0 +1,214 @@
+package amazons;
+
+import static amazons.Piece.WHITE;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ucb.util.CommandArgs;
+
+/** Builds opening books (see OpeningBook) offline.  Starting from the
+ *  initial position, each position in the book is searched to a fixed
+ *  depth, and its best few moves (its "width") go in the book, the best
+ *  with the greatest weight.  The positions those moves lead to are
+ *  searched in turn, out to a given number of plies.  The positions at
+ *  each ply are searched in parallel, each by one thread, all sharing a
+ *  transposition table.
+ *  @author Ben Chen
+ */
+class OpeningBookBuilder {
+
+    /** Build a book as directed by ARGS and write it to the file named
+     *  there.  ARGS may contain --plies=N (default 2), --depth=N (default
+     *  2), --width=N (default 3), --threads=N (default: the number of
+     *  processors), and --eval=NAME (as for Main). */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--plies={0,1} --depth={0,1} --width={0,1}"
+                            + " --threads={0,1} --eval={0,1} --={1}",
+                            args);
+        if (!options.ok()) {
+            System.err.println("Usage: java amazons.OpeningBookBuilder"
+                               + " [--plies=N] [--depth=N] [--width=N]"
+                               + " [--threads=N] [--eval=NAME] BOOK");
+            System.exit(1);
+        }
+        OpeningBookBuilder builder =
+            new OpeningBookBuilder(
+                Integer.parseInt(options.getFirst("--depth", "2")),
+                Integer.parseInt(options.getFirst("--width", "3")),
+                options.getFirst("--eval", Evaluator.MOBILITY));
+        int threads =
+            Integer.parseInt(options.getFirst(
+                "--threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        try {
+            int entries =
+                builder.build(new File(options.getFirst("--")),
+                              Integer.parseInt(options.getFirst("--plies",
+                                                                "2")),
+                              threads);
+            System.out.printf("Wrote %d entries.%n", entries);
+        } catch (IOException excp) {
+            System.err.printf("Could not write book: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A builder that searches each position to DEPTH and keeps its best
+     *  WIDTH moves, scoring positions with the Evaluator named EVALUATOR
+     *  (see Evaluator.create). */
+    OpeningBookBuilder(int depth, int width, String evaluator) {
+        if (depth < 1 || depth > TranspositionTable.MAX_DEPTH || width < 1) {
+            throw Utils.error("bad book depth or width");
+        }
+        Evaluator.create(evaluator);
+        _depth = depth;
+        _width = width;
+        _evaluator = evaluator;
+    }
+
+    /** Write a book covering the first PLIES plies from the initial
+     *  position to OUTPUT, searching with THREADS threads, and return
+     *  the number of entries in it. */
+    int build(File output, int plies, int threads) throws IOException {
+        TranspositionTable table = new TranspositionTable(TABLE_SIZE);
+        List<long[]> entries = new ArrayList<>();
+        List<Board> level = new ArrayList<>();
+        level.add(new Board());
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (int ply = 0; ply < plies && !level.isEmpty(); ply += 1) {
+                List<Board> positions = level;
+                int[][] best = pool.submit(() -> positions.parallelStream()
+                    .map(b -> bestMoves(b, table))
+                    .toArray(int[][]::new)).get();
+                level = new ArrayList<>();
+                for (int i = 0; i < positions.size(); i += 1) {
+                    Board position = positions.get(i);
+                    for (int k = 0; k < best[i].length; k += 1) {
+                        entries.add(new long[] {
+                            position.key(), best[i][k], _width - k });
+                        Board next = new Board(position);
+                        next.makeMove(best[i][k]);
+                        if (next.winner() == null) {
+                            level.add(next);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalStateException(excp);
+        } finally {
+            pool.shutdown();
+        }
+        entries = dedup(entries);
+        write(output, entries);
+        return entries.size();
+    }
+
+    /** Return the best moves (at most _width of them, best first) for
+     *  the side to move in POSITION, searching to _depth with TABLE as
+     *  the transposition table.  Searches to successively greater depths,
+     *  each time finding exact values only for moves that might be among
+     *  the best _width. */
+    private int[] bestMoves(Board position, TranspositionTable table) {
+        Searcher searcher =
+            new Searcher(table, Evaluator.create(_evaluator),
+                         new AtomicBoolean());
+        searcher.setRoot(position);
+        searcher.setDeadline(Long.MAX_VALUE, false);
+        int sense = position.turn() == WHITE ? 1 : -1;
+        int[] best = new int[0];
+        for (int depth = 1; depth <= _depth; depth += 1) {
+            int n = searcher.orderMoves(depth, best.length > 0 ? best[0] : 0);
+            int[] moves = Arrays.copyOf(searcher.moves(depth), n);
+            int[] values = new int[n];
+            int[] top = new int[Math.min(_width, n)];
+            int found = 0;
+            for (int i = 0; i < n; i += 1) {
+                int bound = found < top.length ? -Searcher.INFTY
+                    : sense * values[top[found - 1]];
+                values[i] =
+                    sense == 1
+                    ? searcher.searchMove(moves[i], depth - 1, -1, bound,
+                                          Searcher.INFTY)
+                    : searcher.searchMove(moves[i], depth - 1, 1,
+                                          -Searcher.INFTY, -bound);
+                int j = found < top.length ? found : found - 1;
+                if (found < top.length || sense * values[i] > bound) {
+                    for (; j > 0 && sense * values[i]
+                             > sense * values[top[j - 1]]; j -= 1) {
+                        top[j] = top[j - 1];
+                    }
+                    top[j] = i;
+                    found = Math.min(found + 1, top.length);
+                }
+            }
+            best = new int[found];
+            for (int k = 0; k < found; k += 1) {
+                best[k] = moves[top[k]];
+            }
+        }
+        return best;
+    }
+
+    /** Return ENTRIES (each a key, move, and weight) sorted by key and
+     *  then by decreasing weight, keeping only the first entry for each
+     *  key and move (the same position may be reached by several
+     *  orders of moves). */
+    private static List<long[]> dedup(List<long[]> entries) {
+        entries.sort(Comparator.<long[]>comparingLong(e -> e[0])
+                     .thenComparingLong(e -> -e[2]));
+        List<long[]> result = new ArrayList<>();
+        for (long[] entry : entries) {
+            boolean seen = false;
+            for (int i = result.size() - 1;
+                 i >= 0 && result.get(i)[0] == entry[0]; i -= 1) {
+                seen |= result.get(i)[1] == entry[1];
+            }
+            if (!seen) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /** Write ENTRIES, sorted as for dedup, to OUTPUT in the format read
+     *  by OpeningBook. */
+    private static void write(File output, List<long[]> entries)
+        throws IOException {
+        try (DataOutputStream out =
+             new DataOutputStream(new BufferedOutputStream(
+                 new FileOutputStream(output)))) {
+            out.writeLong(OpeningBook.MAGIC);
+            out.writeInt(entries.size());
+            for (long[] entry : entries) {
+                out.writeLong(entry[0]);
+                out.writeInt((int) entry[1]);
+                out.writeInt((int) entry[2]);
+            }
+        }
+    }
+
+    /** Size of the shared transposition table, in megabytes. */
+    private static final int TABLE_SIZE = 64;
+
+    /** Depth of the search of each position. */
+    private final int _depth;
+    /** Number of moves kept for each position. */
+    private final int _width;
+    /** Name of the kind of Evaluator used. */
+    private final String _evaluator;
+}
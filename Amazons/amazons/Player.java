@@ -24,6 +24,12 @@ abstract class Player {
         return _controller.board();
     }
 
+    /** Return a snapshot of the current position (see
+     *  Controller.snapshot). */
+    BoardSnapshot snapshot() {
+        return _controller.snapshot();
+    }
+
     /** A factory method that returns a Player with my concrete type that
      *  plays the side indicated by PIECE in a game controlled by
      *  CONTROLLER.  This typically will call the constructor for the class
@@ -36,8 +42,75 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Return the number of positions I have examined in choosing my
+     *  moves so far, for reporting search speed.  Players that do not
+     *  search return 0. */
+    long nodes() {
+        return 0;
+    }
+
+    /** Return a description, possibly of several lines, of the work done
+     *  choosing my last move, or null if there is none to report. */
+    String statistics() {
+        return null;
+    }
+
+    /** Release any threads I keep for choosing moves, when I am done
+     *  playing.  I may still be asked for moves afterwards, but then
+     *  start them up again.  Does nothing by default. */
+    void close() {
+    }
+
+    /** Return the number of nanoseconds I may spend on a move from
+     *  BOARD under limits of MOVETIME milliseconds per move and GAMETIME
+     *  for all my moves in the game: a share of the game time I have
+     *  left, estimating the moves I have still to make from the number
+     *  of empty squares, and at most nearly MOVETIME.  A board with fewer
+     *  moves on it than at my last move starts a new game, with the
+     *  whole of GAMETIME left. */
+    long timeShare(Board board, long moveTime, long gameTime) {
+        if (board.numMoves() < _lastNumMoves) {
+            _timeUsed = 0;
+        }
+        _lastNumMoves = board.numMoves();
+        long share = timeLeft(gameTime)
+            / Math.max(MIN_MOVES_LEFT, board.emptySquares() / 3);
+        return Math.min(share, moveLimit(moveTime));
+    }
+
+    /** Return the number of nanoseconds left of GAMETIME milliseconds
+     *  after the time charged for my moves so far this game. */
+    long timeLeft(long gameTime) {
+        return Math.max(0, gameTime * MILLIS - _timeUsed);
+    }
+
+    /** Charge the time since START (a System.nanoTime value) to my
+     *  moves in this game. */
+    void chargeTime(long start) {
+        _timeUsed += System.nanoTime() - start;
+    }
+
+    /** Return the number of nanoseconds a search may use under a limit of
+     *  MOVETIME milliseconds per move, leaving a margin for the rest of
+     *  the move. */
+    static long moveLimit(long moveTime) {
+        return moveTime * MILLIS * SAFETY_PERCENT / 100;
+    }
+
+    /** Nanoseconds per millisecond. */
+    static final long MILLIS = 1000000;
+    /** Percentage of the per-move limit that a search may use. */
+    private static final long SAFETY_PERCENT = 90;
+    /** The fewest moves I allow for when dividing up the game time. */
+    private static final int MIN_MOVES_LEFT = 6;
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
     protected final Piece _myPiece;
+    /** Total nanoseconds charged to my moves so far this game. */
+    private long _timeUsed;
+    /** Number of moves on the board at my last timeShare, used to notice
+     *  the start of a new game. */
+    private int _lastNumMoves;
 }
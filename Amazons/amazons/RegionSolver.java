@@ -0,0 +1,373 @@
+package amazons;
+
+import static amazons.Piece.BLACK;
+import static amazons.Piece.SPEAR;
+import static amazons.Piece.WHITE;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/** An exact solver for Amazons endgames in which the board has been
+ *  walled off into regions, none holding amazons of both colors.  Such
+ *  a game is a sum of independent one-player games: each side can make
+ *  exactly as many more moves as the sum, over the regions holding its
+ *  amazons, of the longest sequence of moves its amazons can make in
+ *  that region, and the side to move wins iff it can make more moves
+ *  than its opponent.
+ *
+ *  The regions are the connected groups (by king moves) of squares not
+ *  holding spears.  The longest sequence of moves in a region is found
+ *  by depth-first search, memoized on the region's empty squares and
+ *  amazon placement.  Regions of more than MAX_REGION squares, and
+ *  searches that exceed a fixed node budget or a deadline, are not
+ *  solved.  Regions that exceeded the budget are remembered and not
+ *  searched again.
+ *  @author Ben Chen
+ */
+class RegionSolver {
+
+    /** The largest number of squares in a region that is solved. */
+    static final int MAX_REGION = 32;
+
+    /** Find the regions of BOARD, and return true iff none holds amazons
+     *  of both colors. */
+    boolean decompose(Board board) {
+        Arrays.fill(_region, -1);
+        _regions = 0;
+        boolean separated = true;
+        for (int k = 0; k < _region.length; k += 1) {
+            if (_region[k] >= 0 || board.get(Square.sq(k)) == SPEAR) {
+                continue;
+            }
+            int r = _regions;
+            _regions += 1;
+            int size = 0;
+            boolean white = false, black = false;
+            _region[k] = r;
+            _queue[0] = k;
+            for (int head = 0, tail = 1; head < tail; head += 1) {
+                int sq = _queue[head];
+                size += 1;
+                Piece p = board.get(Square.sq(sq));
+                white |= p == WHITE;
+                black |= p == BLACK;
+                for (int dir = 0; dir < 8; dir += 1) {
+                    int[] ray = Square.ray(sq, dir);
+                    if (ray.length > 0 && _region[ray[0]] < 0
+                        && board.get(Square.sq(ray[0])) != SPEAR) {
+                        _region[ray[0]] = r;
+                        _queue[tail] = ray[0];
+                        tail += 1;
+                    }
+                }
+            }
+            _owner[r] = white ? WHITE : black ? BLACK : null;
+            _size[r] = size;
+            _count[r] = UNSOLVED;
+            separated &= !(white && black);
+        }
+        _board = board;
+        return separated;
+    }
+
+    /** Return the number of regions found by the last decompose. */
+    int regions() {
+        return _regions;
+    }
+
+    /** Return the exact number of moves SIDE can make in the position
+     *  last decomposed (which must be separated), or -1 if some region
+     *  holding SIDE's amazons cannot be solved by DEADLINE (a
+     *  System.nanoTime value). */
+    int moves(Piece side, long deadline) {
+        _deadline = deadline;
+        int total = 0;
+        for (int r = 0; r < _regions; r += 1) {
+            if (_owner[r] == side) {
+                int n = solve(r);
+                if (n < 0) {
+                    return -1;
+                }
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    /** Return the winner, with both sides playing perfectly, of the
+     *  position last decomposed (which must be separated) with TOMOVE to
+     *  move: TOMOVE wins iff it can make more moves than its opponent.
+     *  Returns null if some region holding amazons cannot be solved by
+     *  DEADLINE. */
+    Piece winner(Piece toMove, long deadline) {
+        int mine = moves(toMove, deadline);
+        if (mine < 0) {
+            return null;
+        }
+        int theirs = moves(toMove.opponent(), deadline);
+        if (theirs < 0) {
+            return null;
+        }
+        return mine > theirs ? toMove : toMove.opponent();
+    }
+
+    /** Return the first move, packed as by Move.pack, of a longest
+     *  sequence of moves for SIDE in the position last decomposed (which
+     *  must be separated), or 0 if SIDE has no move or some region
+     *  holding its amazons cannot be solved by DEADLINE.  Making it
+     *  leaves SIDE exactly one move fewer. */
+    int bestMove(Piece side, long deadline) {
+        if (moves(side, deadline) <= 0) {
+            return 0;
+        }
+        for (int r = 0; r < _regions; r += 1) {
+            if (_owner[r] == side && _count[r] > 0) {
+                setUp(r);
+                _budget = NODE_BUDGET;
+                int move = firstMove(_count[r]);
+                if (move != 0) {
+                    return move;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /** Return the number of moves the amazons in region R can make,
+     *  or -1 if it is too large or too hard to solve, or _deadline
+     *  passes first. */
+    private int solve(int r) {
+        if (_count[r] == UNSOLVED) {
+            if (_size[r] > MAX_REGION) {
+                _count[r] = -1;
+            } else {
+                setUp(r);
+                if (_hard.contains(_contents)) {
+                    _count[r] = -1;
+                    return -1;
+                }
+                _budget = NODE_BUDGET;
+                _timedOut = false;
+                int n = longest(_empty, _amazons);
+                if (_budget >= 0) {
+                    _count[r] = n;
+                } else if (_timedOut) {
+                    return -1;
+                } else {
+                    _hard.add(_contents);
+                    _count[r] = -1;
+                }
+            }
+        }
+        return _count[r];
+    }
+
+    /** Number the squares of region R from 0 in _squares, and set up
+     *  _rays, _empty, _amazons, _contents, and _memo for searching
+     *  it. */
+    private void setUp(int r) {
+        if (_memoRegion == r && _memoBoard == _board
+            && _memoKey == _board.key()) {
+            return;
+        }
+        int n = 0;
+        for (int k = 0; k < _region.length; k += 1) {
+            if (_region[k] == r) {
+                _local[k] = n;
+                _squares[n] = k;
+                n += 1;
+            } else {
+                _local[k] = -1;
+            }
+        }
+        _empty = _amazons = 0;
+        _contents = 0;
+        for (int i = 0; i < n; i += 1) {
+            int k = _squares[i];
+            Piece p = _board.get(Square.sq(k));
+            if (p == Piece.EMPTY) {
+                _empty |= 1 << i;
+            } else {
+                _amazons |= 1 << i;
+            }
+            _contents += mix(k * 4 + p.ordinal());
+            for (int dir = 0; dir < 8; dir += 1) {
+                int[] ray = Square.ray(k, dir);
+                int len = 0;
+                while (len < ray.length && _local[ray[len]] >= 0) {
+                    len += 1;
+                }
+                _rays[i][dir] = new int[len];
+                for (int j = 0; j < len; j += 1) {
+                    _rays[i][dir][j] = _local[ray[j]];
+                }
+            }
+        }
+        _memo.clear();
+        _memoRegion = r;
+        _memoBoard = _board;
+        _memoKey = _board.key();
+    }
+
+    /** Return the largest number of moves that amazons on the squares
+     *  in AMAZONS can make, where EMPTY is the set of empty squares (both
+     *  sets of local square numbers as bits).  Gives up, leaving _budget
+     *  negative, if the search takes too long, and also setting _timedOut
+     *  if it is because _deadline has passed. */
+    private int longest(int empty, int amazons) {
+        int bound = Integer.bitCount(empty);
+        if (bound == 0) {
+            return 0;
+        }
+        long key = (long) empty << 32 | (amazons & 0xffffffffL);
+        Integer known = _memo.get(key);
+        if (known != null) {
+            return known;
+        }
+        if (_budget % CLOCK_INTERVAL == 0 && System.nanoTime() >= _deadline) {
+            _timedOut = true;
+            _budget = -1;
+            return 0;
+        }
+        _budget -= 1;
+        if (_budget < 0) {
+            return 0;
+        }
+        int best = 0;
+        search:
+        for (int rest = amazons; rest != 0; rest &= rest - 1) {
+            int from = Integer.numberOfTrailingZeros(rest);
+            int vacated = empty | 1 << from;
+            for (int[] ray : _rays[from]) {
+                for (int to : ray) {
+                    if ((empty & 1 << to) == 0) {
+                        break;
+                    }
+                    int landed = vacated & ~(1 << to);
+                    int moved = amazons & ~(1 << from) | 1 << to;
+                    for (int[] ray2 : _rays[to]) {
+                        for (int spear : ray2) {
+                            if ((landed & 1 << spear) == 0) {
+                                break;
+                            }
+                            best = Math.max(best,
+                                            1 + longest(landed & ~(1 << spear),
+                                                        moved));
+                            if (best == bound || _budget < 0) {
+                                break search;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (_budget >= 0) {
+            _memo.put(key, best);
+        }
+        return best;
+    }
+
+    /** Return a move, packed as by Move.pack, from the region set up by
+     *  setUp, after which its amazons can make exactly COUNT - 1 more
+     *  moves, or 0 if there is none (or the search gives up). */
+    private int firstMove(int count) {
+        int empty = _empty, amazons = _amazons;
+        for (int rest = amazons; rest != 0; rest &= rest - 1) {
+            int from = Integer.numberOfTrailingZeros(rest);
+            int vacated = empty | 1 << from;
+            for (int[] ray : _rays[from]) {
+                for (int to : ray) {
+                    if ((empty & 1 << to) == 0) {
+                        break;
+                    }
+                    int landed = vacated & ~(1 << to);
+                    int moved = amazons & ~(1 << from) | 1 << to;
+                    for (int[] ray2 : _rays[to]) {
+                        for (int spear : ray2) {
+                            if ((landed & 1 << spear) == 0) {
+                                break;
+                            }
+                            int n = longest(landed & ~(1 << spear), moved);
+                            if (_budget < 0) {
+                                return 0;
+                            }
+                            if (n == count - 1) {
+                                return Move.pack(_squares[from],
+                                                 _squares[to],
+                                                 _squares[spear]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    /** Return a hash of X, mixing its bits (from SplitMix64). */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /** Marks a region not yet solved. */
+    private static final int UNSOLVED = -2;
+    /** The most positions searched in solving one region. */
+    private static final int NODE_BUDGET = 1 << 18;
+    /** The number of positions searched between looks at the clock. */
+    private static final int CLOCK_INTERVAL = 1 << 10;
+
+    /** The number of squares. */
+    private static final int SQUARES = Board.SIZE * Board.SIZE;
+
+    /** The board last decomposed. */
+    private Board _board;
+    /** The region of each square, or -1 for a spear. */
+    private final int[] _region = new int[SQUARES];
+    /** Number of regions. */
+    private int _regions;
+    /** The color of the amazons in each region (null if none). */
+    private final Piece[] _owner = new Piece[SQUARES];
+    /** The number of squares in each region. */
+    private final int[] _size = new int[SQUARES];
+    /** The number of moves the amazons in each region can make, or -1 if
+     *  unknown, or UNSOLVED. */
+    private final int[] _count = new int[SQUARES];
+    /** Work queue for the flood fill. */
+    private final int[] _queue = new int[SQUARES];
+
+    /** The local number of each square in the region being searched, or
+     *  -1 if it is not in the region. */
+    private final int[] _local = new int[SQUARES];
+    /** The square index of each local square number. */
+    private final int[] _squares = new int[MAX_REGION];
+    /** _rays[i][d] lists the local squares in direction d from local
+     *  square i, nearest first, up to the edge of the region. */
+    private final int[][][] _rays = new int[MAX_REGION][8][];
+    /** The empty squares and amazons of the region being searched, as
+     *  sets of local square numbers. */
+    private int _empty, _amazons;
+    /** Nodes left in the search budget. */
+    private int _budget;
+    /** The System.nanoTime value at which searches give up. */
+    private long _deadline;
+    /** True iff the last search gave up because _deadline passed. */
+    private boolean _timedOut;
+    /** A hash of the squares of the region being searched and what is on
+     *  them. */
+    private long _contents;
+    /** The _contents of regions whose search exceeded the node budget,
+     *  which are not searched again. */
+    private final HashSet<Long> _hard = new HashSet<>();
+    /** Known results of longest, keyed by the empty squares (high word)
+     *  and amazons (low word). */
+    private final HashMap<Long, Integer> _memo = new HashMap<>();
+    /** The region, board, and position key for which _memo is valid. */
+    private int _memoRegion = -1;
+    /** The board for which _memo is valid. */
+    private Board _memoBoard;
+    /** The key of _memoBoard's position when _memo was filled. */
+    private long _memoKey;
+}
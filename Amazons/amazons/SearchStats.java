@@ -0,0 +1,170 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** Counts of the work done by a search: nodes visited, positions
+ *  scored by the evaluator, transposition-table probes and hits, beta
+ *  cutoffs by the index (in search order) of the move that caused them,
+ *  the time spent, and the nodes and time taken by each finished
+ *  iteration of iterative deepening.  Each Searcher counts into its own
+ *  SearchStats, so that counting needs no synchronization and threads
+ *  do not contend for the counters; AI adds them together after each
+ *  search.
+ *  @author Ben Chen
+ */
+class SearchStats {
+
+    /** The number of move indices for which cutoffs are counted
+     *  separately; cutoffs at this index or later are counted
+     *  together. */
+    static final int CUTOFF_SLOTS = 8;
+
+    /** Reset all counts to 0. */
+    void clear() {
+        _nodes = _evaluations = _probes = _hits = _nanos = 0;
+        Arrays.fill(_cutoffs, 0);
+        _iterations = 0;
+    }
+
+    /** Add the counts in OTHER (but not its iterations) to mine. */
+    void add(SearchStats other) {
+        _nodes += other._nodes;
+        _evaluations += other._evaluations;
+        _probes += other._probes;
+        _hits += other._hits;
+        _nanos += other._nanos;
+        for (int i = 0; i < CUTOFF_SLOTS; i += 1) {
+            _cutoffs[i] += other._cutoffs[i];
+        }
+    }
+
+    /** Count a node, and return the number counted. */
+    long countNode() {
+        _nodes += 1;
+        return _nodes;
+    }
+
+    /** Count a static evaluation. */
+    void countEvaluation() {
+        _evaluations += 1;
+    }
+
+    /** Count a transposition-table probe, which found an entry iff
+     *  HIT. */
+    void countProbe(boolean hit) {
+        _probes += 1;
+        if (hit) {
+            _hits += 1;
+        }
+    }
+
+    /** Count a beta cutoff caused by the move at INDEX in search
+     *  order. */
+    void countCutoff(int index) {
+        _cutoffs[Math.min(index, CUTOFF_SLOTS - 1)] += 1;
+    }
+
+    /** Count NANOS nanoseconds of searching. */
+    void addTime(long nanos) {
+        _nanos += nanos;
+    }
+
+    /** Record that an iteration to DEPTH visited NODES nodes and took
+     *  NANOS nanoseconds.  At most TranspositionTable.MAX_DEPTH + 1
+     *  iterations may be recorded between clears. */
+    void iteration(int depth, long nodes, long nanos) {
+        _depths[_iterations] = depth;
+        _iterationNodes[_iterations] = nodes;
+        _iterationTimes[_iterations] = nanos;
+        _iterations += 1;
+    }
+
+    /** Return the number of nodes counted. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Return the number of static evaluations counted. */
+    long evaluations() {
+        return _evaluations;
+    }
+
+    /** Return the number of transposition-table probes counted. */
+    long probes() {
+        return _probes;
+    }
+
+    /** Return the number of those probes that found an entry. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of cutoffs caused by the move at INDEX in search
+     *  order (or, for the last slot, at that index or later). */
+    long cutoffs(int index) {
+        return _cutoffs[index];
+    }
+
+    /** Return the effective branching factor: the ratio of the nodes
+     *  visited by the last recorded iteration to those visited by the
+     *  one before, or 0 if fewer than two iterations are recorded. */
+    double branchingFactor() {
+        if (_iterations < 2 || _iterationNodes[_iterations - 2] == 0) {
+            return 0;
+        }
+        return (double) _iterationNodes[_iterations - 1]
+            / _iterationNodes[_iterations - 2];
+    }
+
+    /** Return a one-line summary of my counts. */
+    String summary() {
+        long cutoffs = 0;
+        for (long count : _cutoffs) {
+            cutoffs += count;
+        }
+        int depth = _iterations == 0 ? 0 : _depths[_iterations - 1];
+        return String.format("depth %d, %d nodes in %.3f s (%.0f nodes/s),"
+                             + " EBF %.2f, %d evaluations, TT hits %d/%d,"
+                             + " first-move cutoffs %.0f%%",
+                             depth, _nodes, _nanos / 1e9,
+                             _nodes / Math.max(_nanos / 1e9, 1e-9),
+                             branchingFactor(), _evaluations, _hits,
+                             _probes,
+                             100.0 * _cutoffs[0] / Math.max(cutoffs, 1));
+    }
+
+    /** Return the summary line followed by lines giving the nodes and
+     *  time of each iteration and the cutoffs by move index. */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(summary());
+        for (int i = 0; i < _iterations; i += 1) {
+            result.append(String.format("%n  depth %d: %d nodes, %.3f s",
+                                        _depths[i], _iterationNodes[i],
+                                        _iterationTimes[i] / 1e9));
+        }
+        result.append(String.format("%n  cutoffs by move index:"));
+        for (int i = 0; i < CUTOFF_SLOTS; i += 1) {
+            result.append(String.format(" %d%s:%d", i,
+                                        i == CUTOFF_SLOTS - 1 ? "+" : "",
+                                        _cutoffs[i]));
+        }
+        return result.toString();
+    }
+
+    /** Nodes visited, positions scored, table probes and hits, and
+     *  nanoseconds spent searching. */
+    private long _nodes, _evaluations, _probes, _hits, _nanos;
+    /** Cutoffs by move index. */
+    private final long[] _cutoffs = new long[CUTOFF_SLOTS];
+    /** The number of iterations recorded. */
+    private int _iterations;
+    /** The most iterations recorded. */
+    private static final int ITERATIONS = TranspositionTable.MAX_DEPTH + 1;
+    /** The depth of each recorded iteration. */
+    private final int[] _depths = new int[ITERATIONS];
+    /** The nodes visited by each recorded iteration. */
+    private final long[] _iterationNodes = new long[ITERATIONS];
+    /** The nanoseconds taken by each recorded iteration. */
+    private final long[] _iterationTimes = new long[ITERATIONS];
+}
@@ -0,0 +1,467 @@
+package amazons;
+
+import static amazons.Piece.BLACK;
+import static amazons.Piece.WHITE;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** The state of one thread of an AI's alpha-beta search: a private board
+ *  on which moves are made and undone in place, buffers for generated
+ *  moves, and counts of its work (see SearchStats).  A Searcher must
+ *  only be used by one thread at a time; several Searchers may share a
+ *  transposition table and a stop flag.
+ *  @author Ben Chen
+ */
+class Searcher {
+
+    /** A position magnitude indicating a win (for white if positive, black
+     *  if negative). */
+    static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
+    /** A magnitude greater than a normal value. */
+    static final int INFTY = Integer.MAX_VALUE;
+
+    /** A Searcher using TABLE as its transposition table (none if null)
+     *  and EVALUATOR to score the positions at the leaves, that abandons
+     *  its search whenever STOP is set. */
+    Searcher(TranspositionTable table, Evaluator evaluator,
+             AtomicBoolean stop) {
+        this(table, evaluator, stop, new MoveOrdering());
+    }
+
+    /** A Searcher as for Searcher(TABLE, EVALUATOR, STOP), that orders
+     *  its moves with ORDERING. */
+    Searcher(TranspositionTable table, Evaluator evaluator,
+             AtomicBoolean stop, MoveOrdering ordering) {
+        _table = table;
+        _evaluator = evaluator;
+        _stop = stop;
+        _ordering = ordering;
+    }
+
+    /** Search queen moves and spear throws as separate levels of the
+     *  tree iff SPLIT (see findMove).  The root's moves are always whole
+     *  moves. */
+    void setSplitPly(boolean split) {
+        _splitPly = split;
+    }
+
+    /** At each node below the root with D plies left, search only the
+     *  moves that MoveOrdering.prune keeps with K = WIDTHS[D - 1] (or
+     *  the last of WIDTHS, if D is greater than its length), unless K is
+     *  0.  With split plies, this applies to queen moves and to spear
+     *  throws separately.  If WIDTHS is empty, search all moves. */
+    void setBeam(int[] widths) {
+        _beam = widths.clone();
+    }
+
+    /** Search late moves to reduced depth first iff REDUCE (see
+     *  findMove). */
+    void setReductions(boolean reduce) {
+        _reductions = reduce;
+    }
+
+    /** Prepare to search from POSITION. */
+    void setRoot(Board position) {
+        _board.copy(position);
+        _rootMoves = position.numMoves();
+        _stats.clear();
+        _ordering.newSearch(position);
+    }
+
+    /** Allow the search to be abandoned iff CANSTOP, once System.nanoTime
+     *  reaches DEADLINE. */
+    void setDeadline(long deadline, boolean canStop) {
+        _deadline = deadline;
+        _canStop = canStop;
+    }
+
+    /** Return true iff the search has been abandoned. */
+    boolean stopped() {
+        return _stop.get();
+    }
+
+    /** Return the number of nodes visited since the last setRoot. */
+    long nodes() {
+        return _stats.nodes();
+    }
+
+    /** Return the counts of my work since the last setRoot.  They are
+     *  updated only by the thread searching with me. */
+    SearchStats stats() {
+        return _stats;
+    }
+
+    /** Generate the moves from the root position for a search to DEPTH
+     *  into moves(DEPTH), in the order they should be searched, with
+     *  FIRST (a packed move, or 0 for none) leading if it is among them.
+     *  Return their number. */
+    int orderMoves(int depth, int first) {
+        int n = generateMoves(_board, 2 * depth, false);
+        _ordering.order(_moveBuffers[2 * depth], n, _board.turn(), 0, first,
+                        _board.lastPackedMove(), _sortKeys);
+        return n;
+    }
+
+    /** Return the buffer holding the root moves for a search to DEPTH
+     *  (see orderMoves). */
+    int[] moves(int depth) {
+        return _moveBuffers[2 * depth];
+    }
+
+    /** Return the value, to DEPTH further plies, of making the packed
+     *  move MOVE from the root position, as for findMove with SENSE,
+     *  ALPHA, and BETA. */
+    int searchMove(int move, int depth, int sense, int alpha, int beta) {
+        _board.makeMove(move);
+        int value = findMove(_board, depth, sense, alpha, beta);
+        _board.undo();
+        _pv[0][0] = move;
+        _pvLength[0] = 1 + Math.min(_pvLength[2], _pv[0].length - 1);
+        System.arraycopy(_pv[2], 0, _pv[0], 1, _pvLength[0] - 1);
+        return value;
+    }
+
+    /** Check the clock every so often, stopping the search (by setting
+     *  the stop flag) if it has passed the deadline and stopping is
+     *  allowed. */
+    private void checkTime() {
+        if ((_stats.countNode() & TIME_CHECK_INTERVAL) == 0 && _canStop
+            && System.nanoTime() >= _deadline) {
+            _stop.set(true);
+        }
+    }
+
+    /** One less than the number of nodes between clock checks. */
+    private static final int TIME_CHECK_INTERVAL = 255;
+
+    /** Return the principal variation found by the last searchMove: its
+     *  move followed by the best line of play after it, as far as it is
+     *  known, as packed whole moves.  The line is only meaningful if
+     *  the value searchMove returned was exact. */
+    int[] principalVariation() {
+        return Arrays.copyOf(_pv[0], _pvLength[0]);
+    }
+
+    /** Return the value of position BOARD, searching up to DEPTH levels.
+     *  The value should be maximal or >= BETA if SENSE==1, and minimal
+     *  or <= ALPHA if SENSE==-1.  Searching at level 0 simply returns a
+     *  static estimate of the board value.  BOARD is left as it was on
+     *  entry.  A result strictly between ALPHA and BETA is exact; one at
+     *  or above BETA is a lower bound on the value and one at or below
+     *  ALPHA an upper bound.  Returns 0 if the search is abandoned.
+     *
+     *  This is a principal variation search: the first move (in search
+     *  order) is searched with the full window, and each later one first
+     *  with a null window just above the best value so far (just below
+     *  it, for SENSE==-1), which only shows whether the move is better.
+     *  Only a move that is better is searched again with the full window
+     *  (unless its value is a static score, and so already exact).
+     *  With good move ordering, most moves are refuted by the cheap
+     *  null-window search.  Along the way, each node of the current line
+     *  records in _pv the best line found below it (a triangular PV
+     *  table).
+     *
+     *  The search may also be selective.  With reductions, a whole or
+     *  queen move that comes late in the search order (after the
+     *  transposition-table, killer, and counter-moves, and LMR_MOVES
+     *  more) is scouted to a depth reduced by a ply, or by two plies if
+     *  it comes after LMR_LATE more, and only if it is better after all
+     *  is it scouted again at full depth.  With a beam (see setBeam),
+     *  only the moves that look best by a static estimate are searched
+     *  (once the transposition-table, killer, and counter-moves have
+     *  failed to cause a cutoff), unless they all lose, when the rest
+     *  are searched too.
+     *
+     *  When searching split plies, each move is two levels of the tree:
+     *  first the side to move chooses a queen move, and then, in the
+     *  position with its spear pending, where to throw the spear.  Both
+     *  levels have the same SENSE and DEPTH, and each gets its own move
+     *  ordering and transposition-table entries, so alpha-beta can cut
+     *  off the rest of a queen move's throws, or the rest of the queen
+     *  moves, as soon as one throw refutes it. */
+    private int findMove(Board board, int depth, int sense,
+                         int alpha, int beta) {
+        checkTime();
+        int half = board.spearPending() ? 1 : 0;
+        int ply = 2 * (board.numMoves() - _rootMoves) + half;
+        _pvLength[ply] = 0;
+        if (depth == 0 || board.winner() != null) {
+            return staticScore(board);
+        }
+        long key = board.key();
+        int hashMove = 0;
+        if (_table != null) {
+            long entry = _table.probe(key);
+            _stats.countProbe(entry != 0);
+            if (entry != 0) {
+                hashMove = TranspositionTable.move(entry);
+                if (TranspositionTable.depth(entry) == depth) {
+                    int score = TranspositionTable.score(entry);
+                    switch (TranspositionTable.bound(entry)) {
+                    case TranspositionTable.EXACT:
+                        return score;
+                    case TranspositionTable.LOWER:
+                        if (score >= beta) {
+                            return score;
+                        }
+                        break;
+                    default:
+                        if (score <= alpha) {
+                            return score;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        int n = generateMoves(board, 2 * depth + half, _splitPly);
+        int[] moves = _moveBuffers[2 * depth + half];
+        int previous = board.lastPackedMove();
+        int special =
+            _ordering.orderFirst(moves, n, ply, hashMove, previous);
+        int limit = n, sorted = special, width = beamWidth(depth);
+        int alpha0 = alpha, beta0 = beta;
+        boolean leaves = depth == 1 && (!_splitPly || half == 1);
+        int bestm = 0;
+        int bestVal = sense == 1 ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        for (int i = 0; i < limit; i += 1) {
+            if (i == sorted) {
+                if (i == special && width > 0) {
+                    limit = _ordering.prune(board, moves, i, n, width,
+                                            _sortKeys);
+                }
+                _ordering.orderRest(moves, i, limit, board.turn(),
+                                    _sortKeys);
+                sorted = limit;
+            }
+            int m = moves[i];
+            int val;
+            if (i == 0) {
+                val = searchChild(board, m, depth, sense, alpha, beta);
+            } else {
+                int lo = sense == 1 ? alpha : beta - 1;
+                int reduction = reduction(i - special, depth, half);
+                val = searchChild(board, m, depth - reduction, sense, lo,
+                                  lo + 1);
+                if (reduction > 0 && (sense == 1 ? val > lo : val <= lo)
+                    && !_stop.get()) {
+                    val = searchChild(board, m, depth, sense, lo, lo + 1);
+                }
+                if (val > alpha && val < beta && !leaves && !_stop.get()) {
+                    val = searchChild(board, m, depth, sense, alpha, beta);
+                }
+            }
+            if (_stop.get()) {
+                return 0;
+            }
+            if (sense == 1 ? val > bestVal : val < bestVal) {
+                bestVal = val;
+                bestm = m;
+            }
+            if (sense == 1 ? bestVal >= beta : bestVal <= alpha) {
+                _stats.countCutoff(i);
+                _ordering.cutoff(m, ply, depth, previous);
+                break;
+            }
+            if (sense == 1 ? val > alpha : val < beta) {
+                if (sense == 1) {
+                    alpha = val;
+                } else {
+                    beta = val;
+                }
+                extendPv(ply, m, half);
+            }
+            if (i == limit - 1 && limit < n
+                && bestVal == -sense * WINNING_VALUE) {
+                limit = n;
+            }
+        }
+        if (_table != null) {
+            int bound = bestVal >= beta0 ? TranspositionTable.LOWER
+                : bestVal <= alpha0 ? TranspositionTable.UPPER
+                : TranspositionTable.EXACT;
+            _table.store(key, depth, bound, bestVal, bestm);
+        }
+        return bestVal;
+    }
+
+    /** Return the number of plies by which to reduce the first search
+     *  of a move at a node with DEPTH plies left and HALF as for
+     *  findMove, when it comes LATE moves after the
+     *  transposition-table, killer, and counter-moves. */
+    private int reduction(int late, int depth, int half) {
+        if (!_reductions || half == 1 || depth < 2 || late < LMR_MOVES) {
+            return 0;
+        }
+        return late >= LMR_MOVES + LMR_LATE && depth >= 3 ? 2 : 1;
+    }
+
+    /** Return the beam width (see setBeam) at nodes with DEPTH plies
+     *  left, or 0 for none. */
+    private int beamWidth(int depth) {
+        if (_beam.length == 0) {
+            return 0;
+        }
+        return _beam[Math.min(depth, _beam.length) - 1];
+    }
+
+    /** Make the packed move M in BOARD, where a search to DEPTH for the
+     *  side indicated by SENSE is looking for its best move, and return
+     *  the value of the result as for findMove with ALPHA and BETA,
+     *  restoring BOARD.  When searching split plies, M is a queen move
+     *  if no spear is pending in BOARD, and a spear throw if one is. */
+    private int searchChild(Board board, int m, int depth, int sense,
+                            int alpha, int beta) {
+        int val;
+        if (!_splitPly) {
+            board.makeMove(m);
+            val = findMove(board, depth - 1, -sense, alpha, beta);
+            board.undo();
+        } else if (!board.spearPending()) {
+            board.makeQueenMove(Move.fromIndex(m), Move.toIndex(m));
+            val = findMove(board, depth, sense, alpha, beta);
+            board.undoQueenMove();
+        } else {
+            board.throwSpear(Move.spearIndex(m));
+            val = findMove(board, depth - 1, -sense, alpha, beta);
+            board.unthrowSpear();
+        }
+        return val;
+    }
+
+    /** Make the principal variation at PLY (an index into _pv, as
+     *  computed by findMove) the packed move M followed by the one at
+     *  the next level.  When searching split plies, M is a queen move
+     *  if HALF is 0, and is then left out, since the next level's line
+     *  starts with the whole move. */
+    private void extendPv(int ply, int m, int half) {
+        int next = _splitPly ? ply + 1 : ply + 2;
+        int k = 0;
+        if (!_splitPly || half == 1) {
+            _pv[ply][0] = m;
+            k = 1;
+        }
+        int n = Math.min(_pvLength[next], _pv[ply].length - k);
+        System.arraycopy(_pv[next], 0, _pv[ply], k, n);
+        _pvLength[ply] = k + n;
+    }
+
+    /** Generate the legal moves in BOARD into _moveBuffers[K],
+     *  enlarging it (and _sortKeys) as needed, and return how many there
+     *  are.  If SPLIT, generate queen moves, or spear throws if a spear
+     *  is pending, as for Board.generateQueenMoves and generateSpears;
+     *  otherwise, whole moves. */
+    private int generateMoves(Board board, int k, boolean split) {
+        if (k >= _moveBuffers.length) {
+            int j = _moveBuffers.length;
+            _moveBuffers = Arrays.copyOf(_moveBuffers, k + 1);
+            for (; j <= k; j += 1) {
+                _moveBuffers[j] = new int[Board.MAX_MOVES];
+            }
+        }
+        int n = generateMoves(board, _moveBuffers[k], split);
+        if (n > _moveBuffers[k].length) {
+            _moveBuffers[k] = new int[n];
+            generateMoves(board, _moveBuffers[k], split);
+        }
+        if (n > _sortKeys.length) {
+            _sortKeys = new long[n];
+        }
+        return n;
+    }
+
+    /** Generate moves in BOARD into MOVES as for generateMoves(BOARD, K,
+     *  SPLIT), returning their number, which may exceed MOVES.length. */
+    private static int generateMoves(Board board, int[] moves,
+                                     boolean split) {
+        if (!split) {
+            return board.generateMoves(board.turn(), moves);
+        } else if (board.spearPending()) {
+            return board.generateSpears(moves);
+        } else {
+            return board.generateQueenMoves(board.turn(), moves);
+        }
+    }
+
+    /** Return a heuristic value for BOARD. */
+    private int staticScore(Board board) {
+        Piece winner = board.winner();
+        if (winner == BLACK) {
+            return -WINNING_VALUE;
+        } else if (winner == WHITE) {
+            return WINNING_VALUE;
+        }
+        _stats.countEvaluation();
+        return _evaluator.score(board);
+    }
+
+    /** The board searched.  Moves are made and undone on it in place, so
+     *  that it is back in the root position between searches. */
+    private final Board _board = new Board();
+
+    /** Buffers of packed moves, so that move generation does not
+     *  allocate.  Moves at remaining depth d use buffer 2d, or 2d + 1 at
+     *  a pending spear. */
+    private int[][] _moveBuffers = new int[0][];
+
+    /** Scratch space for sorting moves. */
+    private long[] _sortKeys = new long[Board.MAX_MOVES];
+
+    /** Decides the order in which moves are searched. */
+    private final MoveOrdering _ordering;
+
+    /** The number of moves made on the root position, so that
+     *  _board.numMoves() - _rootMoves is the distance from the root. */
+    private int _rootMoves;
+
+    /** The transposition table, or null. */
+    private final TranspositionTable _table;
+
+    /** Scores positions at the leaves of the search. */
+    private final Evaluator _evaluator;
+
+    /** Set when the search is to be abandoned. */
+    private final AtomicBoolean _stop;
+
+    /** The System.nanoTime value at which to abandon the search, if
+     *  _canStop. */
+    private long _deadline;
+
+    /** True iff the search may be abandoned at _deadline. */
+    private boolean _canStop;
+
+    /** True iff queen moves and spear throws are searched as separate
+     *  levels. */
+    private boolean _splitPly;
+
+    /** The beam widths by remaining depth (see setBeam). */
+    private int[] _beam = new int[0];
+
+    /** True iff late moves are searched to reduced depth first. */
+    private boolean _reductions;
+
+    /** The number of moves after the transposition-table, killer, and
+     *  counter-moves that are never reduced, and the number after those
+     *  that are reduced by one ply only. */
+    private static final int LMR_MOVES = 3, LMR_LATE = 12;
+
+    /** The most levels below the root whose principal variations are
+     *  kept: a whole move and a half move for each ply of a search to
+     *  TranspositionTable.MAX_DEPTH, and the level below. */
+    private static final int PV_LEVELS =
+        2 * TranspositionTable.MAX_DEPTH + 4;
+
+    /** The triangular PV table: _pv[k][0 .. _pvLength[k] - 1] is the
+     *  best line (as packed whole moves) found below the node at level
+     *  k of the current line, where level 2p is p whole moves from the
+     *  root and level 2p + 1 the spear-throwing half of the next move.
+     *  _pv[0] is the line from the move made by searchMove. */
+    private final int[][] _pv =
+        new int[PV_LEVELS][TranspositionTable.MAX_DEPTH + 1];
+    /** The lengths of the lines in _pv. */
+    private final int[] _pvLength = new int[PV_LEVELS];
+
+    /** Counts of my work since the last setRoot. */
+    private final SearchStats _stats = new SearchStats();
+}
@@ -64,31 +64,42 @@ final class Square {
      *  northwest. If DIR has another value, return null. Thus, unless the
      *  result is null the resulting square is a queen move away from me. */
     Square queenMove(int dir, int steps) {
-        if (dir < 0 || dir > 7) {
+        if (dir < 0 || dir > 7 || steps < 0) {
             return null;
+        } else if (steps == 0) {
+            return this;
         }
-        int[] direc = DIR[dir];
-        int colnew = this.col() + direc[0] * steps;
-        int rownew = this.row() + direc[1] * steps;
-        if (exists(colnew, rownew)) {
-            return sq(colnew, rownew);
-        }
-        return null;
+        int[] ray = RAYS[_index][dir];
+        return steps <= ray.length ? SQUARES[ray[steps - 1]] : null;
     }
 
     /** Return the direction (an int as defined in the documentation
      *  for queenMove) of the queen move THIS-TO. */
     int direction(Square to) {
         assert isQueenMove(to);
-        for (int k = 0; k < 8; k += 1) {
-            if (to.equals(queenMove(k, Math.max(
-                    Math.abs(to.row() - this.row()),
-                    Math.abs(to.col() - this.col()))
-            ))) {
-                return k;
-            }
-        }
-        return -1;
+        return direction(_index, to.index());
+    }
+
+    /** Return the indices of the squares in direction DIR (0-7, as for
+     *  queenMove) from the square with index FROM, nearest first.  The
+     *  result is shared and must not be modified. */
+    static int[] ray(int from, int dir) {
+        return RAYS[from][dir];
+    }
+
+    /** Return the direction (as for queenMove) from the square with
+     *  index FROM to the square with index TO, or -1 if they are not a
+     *  queen move apart. */
+    static int direction(int from, int to) {
+        return DIRECTIONS[from * SQUARES.length + to];
+    }
+
+    /** Return word W (0 or 1, covering square indices 0-63 and 64-99
+     *  respectively) of the set of squares lying strictly between the
+     *  squares with indices FROM and TO on a queen move.  The set is
+     *  empty if FROM-TO is not a queen move. */
+    static long between(int from, int to, int w) {
+        return BETWEEN[2 * (from * SQUARES.length + to) + w];
     }
 
     @Override
@@ -154,10 +165,49 @@ final class Square {
     /** SQUARES viewed as a List. */
     private static final List<Square> SQUARE_LIST = Arrays.asList(SQUARES);
 
+    /** RAYS[k][d] lists the indices of the squares in direction d from
+     *  square k, nearest first. */
+    private static final int[][][] RAYS = new int[SQUARES.length][8][];
+
+    /** DIRECTIONS[100 * j + k] is the direction from square j to square
+     *  k, or -1 if there is none. */
+    private static final byte[] DIRECTIONS =
+        new byte[SQUARES.length * SQUARES.length];
+
+    /** Words 2 * (100 * j + k) and 2 * (100 * j + k) + 1 of BETWEEN are
+     *  the squares strictly between squares j and k (see between). */
+    private static final long[] BETWEEN =
+        new long[2 * SQUARES.length * SQUARES.length];
+
     static {
         for (int i = Board.SIZE * Board.SIZE - 1; i >= 0; i -= 1) {
             SQUARES[i] = new Square(i);
         }
+        Arrays.fill(DIRECTIONS, (byte) -1);
+        for (Square from : SQUARES) {
+            for (int dir = 0; dir < 8; dir += 1) {
+                int n = 0;
+                while (exists(from._col + DIR[dir][0] * (n + 1),
+                              from._row + DIR[dir][1] * (n + 1))) {
+                    n += 1;
+                }
+                int[] ray = RAYS[from._index][dir] = new int[n];
+                long lo = 0, hi = 0;
+                for (int i = 0; i < n; i += 1) {
+                    ray[i] = from._index
+                        + (i + 1) * (DIR[dir][0] + Board.SIZE * DIR[dir][1]);
+                    int pair = from._index * SQUARES.length + ray[i];
+                    DIRECTIONS[pair] = (byte) dir;
+                    BETWEEN[2 * pair] = lo;
+                    BETWEEN[2 * pair + 1] = hi;
+                    if (ray[i] < 64) {
+                        lo |= 1L << ray[i];
+                    } else {
+                        hi |= 1L << ray[i];
+                    }
+                }
+            }
+        }
     }
 
     /** My index position. */
@@ -0,0 +1,131 @@
+package amazons;
+
+import static amazons.Piece.BLACK;
+import static amazons.Piece.WHITE;
+
+import java.util.Arrays;
+
+/** An Evaluator that estimates which side will end up owning each empty
+ *  square.  For each side it finds the queen distance of every square
+ *  (the fewest amazon moves needed to reach it, ignoring spears thrown
+ *  on the way) and its king distance (the same, but moving one square
+ *  at a time), by breadth-first search from all of that side's amazons
+ *  at once.  A square belongs to the side that is nearer, and a square
+ *  both sides reach equally soon leans slightly to the side to move.
+ *
+ *  The value is queen-distance territory, plus king-distance territory
+ *  and one-move mobility weighted by the fraction of reachable squares
+ *  still contested.  While the board is open the latter two, which see
+ *  further ahead, matter most; once the amazons are walled off from one
+ *  another, queen-distance territory is what decides the game.
+ *  @author Ben Chen
+ */
+class TerritoryEvaluator implements Evaluator {
+
+    @Override
+    public int score(Board board) {
+        _occ0 = board.pieces(WHITE, 0) | board.pieces(BLACK, 0)
+            | board.pieces(Piece.SPEAR, 0);
+        _occ1 = board.pieces(WHITE, 1) | board.pieces(BLACK, 1)
+            | board.pieces(Piece.SPEAR, 1);
+        distances(board, WHITE, true, _whiteQueen);
+        distances(board, BLACK, true, _blackQueen);
+        distances(board, WHITE, false, _whiteKing);
+        distances(board, BLACK, false, _blackKing);
+        int tie = board.turn() == WHITE ? TEMPO : -TEMPO;
+        int queen, king, mobility, reachable, contested;
+        queen = king = mobility = reachable = contested = 0;
+        for (int k = 0; k < _whiteQueen.length; k += 1) {
+            int wq = _whiteQueen[k], bq = _blackQueen[k];
+            if (wq == 0 || bq == 0 || wq + bq == 2 * UNREACHED) {
+                continue;
+            }
+            reachable += 1;
+            if (wq != UNREACHED && bq != UNREACHED) {
+                contested += 1;
+            }
+            queen += owner(wq, bq, tie);
+            king += owner(_whiteKing[k], _blackKing[k], tie);
+            mobility += (wq == 1 ? 1 : 0) - (bq == 1 ? 1 : 0);
+        }
+        if (contested == 0) {
+            return queen;
+        }
+        return queen + (king + OWNED * mobility) * contested / reachable;
+    }
+
+    /** Return the contribution to territory of a square that WHITE reaches
+     *  in WDIST moves and BLACK in BDIST: OWNED for WHITE or -OWNED for
+     *  BLACK if one is nearer, and TIE if both are equally near. */
+    private static int owner(int wDist, int bDist, int tie) {
+        if (wDist < bDist) {
+            return OWNED;
+        } else if (bDist < wDist) {
+            return -OWNED;
+        }
+        return wDist == UNREACHED ? 0 : tie;
+    }
+
+    /** Fill DIST with the number of moves SIDE's amazons on BOARD need to
+     *  reach each square, moving as queens if QUEEN and else as kings.
+     *  Squares holding SIDE's amazons are at distance 0, and those that
+     *  cannot be reached at distance UNREACHED. */
+    private void distances(Board board, Piece side, boolean queen,
+                           int[] dist) {
+        Arrays.fill(dist, UNREACHED);
+        int head, tail;
+        head = tail = 0;
+        for (int w = 0; w < 2; w += 1) {
+            for (long pieces = board.pieces(side, w); pieces != 0;
+                 pieces &= pieces - 1) {
+                int k = 64 * w + Long.numberOfTrailingZeros(pieces);
+                dist[k] = 0;
+                _queue[tail] = k;
+                tail += 1;
+            }
+        }
+        while (head < tail) {
+            int from = _queue[head];
+            head += 1;
+            int d = dist[from] + 1;
+            for (int dir = 0; dir < 8; dir += 1) {
+                for (int to : Square.ray(from, dir)) {
+                    if (((to < 64 ? _occ0 : _occ1) & (1L << to)) != 0) {
+                        break;
+                    }
+                    if (dist[to] == UNREACHED) {
+                        dist[to] = d;
+                        _queue[tail] = to;
+                        tail += 1;
+                    }
+                    if (!queen) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /** The distance of a square that cannot be reached. */
+    private static final int UNREACHED = Board.SIZE * Board.SIZE;
+
+    /** The weight of a square owned outright, and of the advantage of
+     *  the side to move on a square both reach equally soon. */
+    private static final int OWNED = 5, TEMPO = 1;
+
+    /** Queen and king distances of each square from each side's
+     *  amazons. */
+    private final int[]
+        _whiteQueen = new int[Board.SIZE * Board.SIZE],
+        _blackQueen = new int[Board.SIZE * Board.SIZE],
+        _whiteKing = new int[Board.SIZE * Board.SIZE],
+        _blackKing = new int[Board.SIZE * Board.SIZE];
+
+    /** The breadth-first search queue.  Each square enters it at most
+     *  once. */
+    private final int[] _queue = new int[Board.SIZE * Board.SIZE];
+
+    /** The two words of the set of occupied squares in the position
+     *  being scored. */
+    private long _occ0, _occ1;
+}
@@ -0,0 +1,399 @@
+package amazons;
+
+import static amazons.Piece.BLACK;
+import static amazons.Piece.WHITE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ucb.util.CommandArgs;
+
+/** A headless tournament between two automated players, A (typically a
+ *  changed engine) and B (the baseline), playing many games at once in
+ *  one JVM.  Each game has its own Controller, seeded from the game
+ *  number, and starts with a few random moves; the games are played in
+ *  pairs with the same opening and the colors swapped.  After each game,
+ *  a sequential probability ratio test (SPRT) weighs the hypothesis H0
+ *  that A is ELO0 Elo stronger than B against H1 that it is ELO1
+ *  stronger; the tournament stops when it accepts one.  The report
+ *  gives the score, the Elo difference with its 95% interval, the
+ *  SPRT's log-likelihood ratio (LLR) and bounds, and for each player
+ *  its search speed and time per move.
+ *  @author Ben Chen
+ */
+class Tournament {
+
+    /** Run a tournament as directed by ARGS, printing progress and the
+     *  result on the standard output.  ARGS may contain --a=SPEC and
+     *  --b=SPEC to describe the players (see engine), --games=N (default
+     *  1000), --concurrency=N (default: the number of processors),
+     *  --opening=N random opening moves (default 4), --seed=N,
+     *  --elo0=E and --elo1=E (default 0 and 10), --alpha=P and --beta=P
+     *  (default 0.05 each), --report=N to report every N games
+     *  (default 100), and --record=FILE to append the games to the
+     *  game-record file FILE (see GameRecorder). */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--a={0,1} --b={0,1} --games={0,1}"
+                            + " --concurrency={0,1} --opening={0,1}"
+                            + " --seed={0,1} --elo0={0,1} --elo1={0,1}"
+                            + " --alpha={0,1} --beta={0,1} --report={0,1}"
+                            + " --record={0,1}",
+                            args);
+        if (!options.ok()) {
+            System.err.println("Usage: java amazons.Tournament"
+                               + " [--a=SPEC] [--b=SPEC] [--games=N]"
+                               + " [--concurrency=N] [--opening=N]"
+                               + " [--seed=N] [--elo0=E] [--elo1=E]"
+                               + " [--alpha=P] [--beta=P] [--report=N]"
+                               + " [--record=FILE]");
+            System.exit(1);
+        }
+        try {
+            Tournament tournament =
+                new Tournament(engine(options.getFirst("--a", DEFAULT_SPEC)),
+                               engine(options.getFirst("--b", DEFAULT_SPEC)),
+                               Long.parseLong(options.getFirst("--seed",
+                                                               "0")));
+            tournament.setOpeningMoves(
+                Integer.parseInt(options.getFirst("--opening", "4")));
+            tournament.setSprt(
+                Double.parseDouble(options.getFirst("--elo0", "0")),
+                Double.parseDouble(options.getFirst("--elo1", "10")),
+                Double.parseDouble(options.getFirst("--alpha", "0.05")),
+                Double.parseDouble(options.getFirst("--beta", "0.05")));
+            GameRecorder recorder = null;
+            if (options.contains("--record")) {
+                recorder =
+                    new GameRecorder(new File(options.getFirst("--record")));
+                tournament.setRecorder(recorder);
+            }
+            int concurrency =
+                Integer.parseInt(options.getFirst(
+                    "--concurrency",
+                    Integer.toString(Runtime.getRuntime()
+                                     .availableProcessors())));
+            tournament.run(Integer.parseInt(options.getFirst("--games",
+                                                             "1000")),
+                           concurrency, System.out,
+                           Integer.parseInt(options.getFirst("--report",
+                                                             "100")));
+            if (recorder != null) {
+                recorder.close();
+            }
+        } catch (IllegalArgumentException | IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return a template for the player described by SPEC, a
+     *  comma-separated list of settings, each NAME or NAME=VALUE.  With
+     *  "mcts", the player is a MonteCarloAI taking movetime, gametime
+     *  (both in milliseconds), playouts, and threads; otherwise it is an
+     *  AI taking tt, movetime, gametime, depth, threads, eval, split,
+     *  beam (with its widths separated by colons), lmr, and ponder, with
+     *  the same meanings as the options to Main.  An empty SPEC gives an
+     *  AI with the default settings. */
+    static Player engine(String spec) {
+        HashMap<String, String> settings = new HashMap<>();
+        for (String setting : spec.split(",")) {
+            if (!setting.isEmpty()) {
+                String[] parts = setting.split("=", 2);
+                settings.put(parts[0].trim(),
+                             parts.length > 1 ? parts[1].trim() : "");
+            }
+        }
+        try {
+            if (settings.remove("mcts") != null) {
+                MonteCarloAI player = new MonteCarloAI();
+                if (settings.containsKey("movetime")
+                    || settings.containsKey("gametime")) {
+                    player.setTimeLimits(
+                        time(settings, "movetime", AI.DEFAULT_MOVE_TIME),
+                        time(settings, "gametime", AI.DEFAULT_GAME_TIME));
+                }
+                if (settings.containsKey("playouts")) {
+                    player.setPlayouts(
+                        Integer.parseInt(settings.remove("playouts")));
+                }
+                if (settings.containsKey("threads")) {
+                    player.setThreads(
+                        Integer.parseInt(settings.remove("threads")));
+                }
+                checkUsed(settings, spec);
+                return player;
+            }
+            AI player = new AI();
+            if (settings.containsKey("tt")) {
+                player.setTableSize(Integer.parseInt(settings.remove("tt")));
+            }
+            if (settings.containsKey("movetime")
+                || settings.containsKey("gametime")) {
+                player.setTimeLimits(
+                    time(settings, "movetime", AI.DEFAULT_MOVE_TIME),
+                    time(settings, "gametime", AI.DEFAULT_GAME_TIME));
+            }
+            if (settings.containsKey("depth")) {
+                player.setDepth(Integer.parseInt(settings.remove("depth")));
+            }
+            if (settings.containsKey("threads")) {
+                player.setThreads(
+                    Integer.parseInt(settings.remove("threads")));
+            }
+            if (settings.containsKey("eval")) {
+                player.setEvaluator(settings.remove("eval"));
+            }
+            player.setSplitPly(settings.remove("split") != null);
+            if (settings.containsKey("beam")) {
+                player.setBeam(AI.beamWidths(settings.remove("beam")));
+            }
+            player.setReductions(settings.remove("lmr") != null);
+            player.setPonder(settings.remove("ponder") != null);
+            checkUsed(settings, spec);
+            return player;
+        } catch (NumberFormatException excp) {
+            throw Utils.error("bad number in player: %s", spec);
+        }
+    }
+
+    /** Remove the setting NAME from SETTINGS and return its value, in
+     *  milliseconds, or DEFLT if it is absent. */
+    private static long time(HashMap<String, String> settings, String name,
+                             long deflt) {
+        String value = settings.remove(name);
+        return value == null ? deflt : Long.parseLong(value);
+    }
+
+    /** Throw an IllegalArgumentException if SETTINGS, the settings left
+     *  unused from SPEC, is not empty. */
+    private static void checkUsed(HashMap<String, String> settings,
+                                  String spec) {
+        if (!settings.isEmpty()) {
+            throw Utils.error("unknown settings %s in player: %s",
+                              settings.keySet(), spec);
+        }
+    }
+
+    /** A tournament between players created from the templates A and B,
+     *  with random openings determined by SEED. */
+    Tournament(Player a, Player b, long seed) {
+        _players = new Player[] { a, b };
+        _seed = seed;
+        _openingMoves = 4;
+        setSprt(0, 10, 0.05, 0.05);
+    }
+
+    /** Start each game with N random moves. */
+    void setOpeningMoves(int n) {
+        if (n < 0) {
+            throw Utils.error("number of opening moves must not be"
+                              + " negative");
+        }
+        _openingMoves = n;
+    }
+
+    /** Record the games played to RECORDER (if non-null), which the
+     *  caller closes. */
+    void setRecorder(GameRecorder recorder) {
+        _recorder = recorder;
+    }
+
+    /** Make the SPRT test H0: A is ELO0 Elo stronger than B, against
+     *  H1: A is ELO1 stronger, with false positive rate ALPHA and false
+     *  negative rate BETA. */
+    void setSprt(double elo0, double elo1, double alpha, double beta) {
+        if (elo0 >= elo1 || alpha <= 0 || alpha >= 1 || beta <= 0
+            || beta >= 1) {
+            throw Utils.error("bad SPRT parameters");
+        }
+        _elo0 = elo0;
+        _elo1 = elo1;
+        _lower = Math.log(beta / (1 - alpha));
+        _upper = Math.log((1 - beta) / alpha);
+    }
+
+    /** Play GAMES games, CONCURRENCY at a time, or until the SPRT
+     *  accepts a hypothesis, printing a report on OUT after every
+     *  REPORT games and at the end. */
+    void run(int games, int concurrency, PrintStream out, int report) {
+        _out = out;
+        _report = Math.max(report, 1);
+        ForkJoinPool pool = new ForkJoinPool(concurrency);
+        try {
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[concurrency];
+            for (int i = 0; i < concurrency; i += 1) {
+                tasks[i] = pool.submit(() -> playGames(games));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        out.println(summary());
+        for (int p = 0; p < 2; p += 1) {
+            out.printf("%s: %.0f nodes/s, %.1f ms/move%n", NAMES[p],
+                       _nodes[p] / Math.max(_thinkTime[p] / 1e9, 1e-9),
+                       _thinkTime[p] / 1e6 / Math.max(_moves[p], 1));
+        }
+    }
+
+    /** Return the number of games finished. */
+    synchronized int played() {
+        return _played;
+    }
+
+    /** Return the number of games A has won. */
+    synchronized int winsA() {
+        return _wins;
+    }
+
+    /** Return 1 if the SPRT has accepted H1, -1 if it has accepted H0,
+     *  and 0 if neither. */
+    int decision() {
+        return _decision;
+    }
+
+    /** Play games, taking the next unplayed number each time, until
+     *  there are none left among the first GAMES or the SPRT is
+     *  decided. */
+    private void playGames(int games) {
+        for (int i = _nextGame.getAndIncrement(); i < games && _decision == 0;
+             i = _nextGame.getAndIncrement()) {
+            playGame(i);
+        }
+    }
+
+    /** Play game number I, in which A is White iff I is even, and record
+     *  the result.  Games 2k and 2k+1 have the same opening. */
+    private void playGame(int i) {
+        Player aTemplate = _players[0], bTemplate = _players[1];
+        Controller controller =
+            new Controller(new NullView(), null, new NullReporter(),
+                           aTemplate, aTemplate);
+        controller.setSeed(_seed * OPENING_SEEDS + i / 2);
+        controller.setRecorder(_recorder);
+        boolean aWhite = i % 2 == 0;
+        Piece winner;
+        try {
+            winner = controller.selfPlay(aWhite ? aTemplate : bTemplate,
+                                         aWhite ? bTemplate : aTemplate,
+                                         _openingMoves);
+        } catch (IllegalArgumentException excp) {
+            synchronized (this) {
+                _out.printf("Game %d abandoned: %s%n", i, excp.getMessage());
+            }
+            return;
+        }
+        Piece aSide = aWhite ? WHITE : BLACK;
+        synchronized (this) {
+            _played += 1;
+            if (winner == aSide) {
+                _wins += 1;
+            }
+            for (int p = 0; p < 2; p += 1) {
+                Piece side = p == 0 ? aSide : aSide.opponent();
+                _nodes[p] += controller.nodes(side);
+                _thinkTime[p] += controller.thinkTime(side);
+                _moves[p] += controller.movesMade(side);
+            }
+            double llr = llr(_wins, _played - _wins, _elo0, _elo1);
+            if (llr >= _upper) {
+                _decision = 1;
+            } else if (llr <= _lower) {
+                _decision = -1;
+            }
+            if (_played % _report == 0) {
+                _out.println(summary());
+            }
+        }
+    }
+
+    /** Return a one-line summary of the results so far. */
+    private synchronized String summary() {
+        double score = _played == 0 ? 0.5 : (double) _wins / _played;
+        double margin =
+            _played == 0 ? 0.5
+            : Z_95 * Math.sqrt(score * (1 - score) / _played);
+        return String.format("Games %d: A %d - B %d (%.1f%%), Elo %+.1f"
+                             + " [%+.1f, %+.1f], LLR %.2f [%.2f, %.2f] %s",
+                             _played, _wins, _played - _wins, 100 * score,
+                             elo(score), elo(score - margin),
+                             elo(score + margin),
+                             llr(_wins, _played - _wins, _elo0, _elo1),
+                             _lower, _upper,
+                             _decision > 0 ? "H1 accepted"
+                             : _decision < 0 ? "H0 accepted" : "undecided");
+    }
+
+    /** Return the Elo difference corresponding to an expected SCORE (the
+     *  fraction of games won). */
+    static double elo(double score) {
+        if (score <= 0) {
+            return Double.NEGATIVE_INFINITY;
+        } else if (score >= 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    /** Return the log-likelihood ratio of the hypotheses that A is ELO1
+     *  and ELO0 Elo stronger than B, given that A has won WINS and lost
+     *  LOSSES games. */
+    static double llr(int wins, int losses, double elo0, double elo1) {
+        double p0 = expected(elo0), p1 = expected(elo1);
+        return wins * Math.log(p1 / p0)
+            + losses * Math.log((1 - p1) / (1 - p0));
+    }
+
+    /** Return the expected score of a player ELO Elo stronger than its
+     *  opponent. */
+    private static double expected(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    /** The players' settings when none are given. */
+    private static final String DEFAULT_SPEC =
+        "movetime=100,gametime=2000,tt=4";
+    /** The players' names in reports. */
+    private static final String[] NAMES = { "A", "B" };
+    /** The normal deviate for a two-sided 95% interval. */
+    private static final double Z_95 = 1.96;
+    /** Number of distinct openings per value of the seed. */
+    private static final long OPENING_SEEDS = 1000003;
+
+    /** The templates for A and B. */
+    private final Player[] _players;
+    /** Seed for the openings. */
+    private final long _seed;
+    /** Number of random moves at the start of each game. */
+    private int _openingMoves;
+    /** Recorder of the games played, or null. */
+    private GameRecorder _recorder;
+    /** The SPRT's hypotheses, in Elo. */
+    private double _elo0, _elo1;
+    /** The SPRT's bounds on the log-likelihood ratio. */
+    private double _lower, _upper;
+
+    /** The number of the next game to start. */
+    private final AtomicInteger _nextGame = new AtomicInteger();
+    /** Where to report. */
+    private PrintStream _out;
+    /** Games between reports. */
+    private int _report;
+    /** Games finished, and won by A.  Guarded by this. */
+    private int _played, _wins;
+    /** For A (index 0) and B (index 1), the positions examined, the
+     *  nanoseconds spent choosing moves, and the moves chosen.  Guarded
+     *  by this. */
+    private final long[] _nodes = new long[2], _thinkTime = new long[2],
+        _moves = new long[2];
+    /** The SPRT's decision so far (see decision). */
+    private volatile int _decision;
+}
@@ -0,0 +1,145 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** A fixed-size table of search results, indexed by Board.key().  Each
+ *  entry records the depth searched, whether the score is exact or a
+ *  bound, the score, and the best move found.
+ *
+ *  The table may be shared by several searching threads without
+ *  locking.  Each entry is two longs: the data, and the key exclusive-
+ *  or'ed with the data.  A reader that sees half of one store and half of
+ *  another finds that the two no longer match its key and treats the
+ *  entry as missing.
+ *
+ *  Entries live in buckets of two.  A store for a position already in
+ *  the bucket overwrites it.  Otherwise, it replaces an entry left from
+ *  an earlier search if there is one, and else the shallower entry.
+ *  @author Ben Chen
+ */
+class TranspositionTable {
+
+    /** Bound types.  An EXACT score is the value of the position; a LOWER
+     *  score is at most the value, and an UPPER score at least. */
+    static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+    /** The largest depth that can be recorded. */
+    static final int MAX_DEPTH = 31;
+
+    /** A table occupying about MEGABYTES megabytes (rounded down to a
+     *  power of two; at least one bucket). */
+    TranspositionTable(int megabytes) {
+        long entries = Math.max(2, (long) megabytes << 20 >> 4);
+        int buckets = Integer.highestOneBit((int) Math.min(entries / 2,
+                                                           1 << 26));
+        _mask = buckets - 1;
+        _table = new long[4 * buckets];
+    }
+
+    /** Remove all entries. */
+    void clear() {
+        Arrays.fill(_table, 0L);
+    }
+
+    /** Start a new search, making all existing entries preferred victims
+     *  for replacement. */
+    void newSearch() {
+        _age = (_age + 1) & AGE_MASK;
+    }
+
+    /** Return the data stored for the position with hash key KEY, or 0 if
+     *  there is none.  Use the static methods score, move, depth, and
+     *  bound to unpack a nonzero result. */
+    long probe(long key) {
+        int b = bucket(key);
+        for (int i = b; i < b + 4; i += 2) {
+            long data = _table[i + 1];
+            if ((_table[i] ^ data) == key) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    /** Record that a search to DEPTH of the position with hash key KEY
+     *  produced SCORE, which is a bound of type BOUND, and best move MOVE
+     *  (packed as by Move.pack). */
+    void store(long key, int depth, int bound, int score, int move) {
+        int b = bucket(key);
+        int victim = b;
+        for (int i = b; i < b + 4; i += 2) {
+            long data = _table[i + 1];
+            if ((_table[i] ^ data) == key) {
+                if (depth < depth(data) && bound != EXACT
+                    && age(data) == _age) {
+                    return;
+                }
+                victim = i;
+                break;
+            }
+            if (priority(data) < priority(_table[victim + 1])) {
+                victim = i;
+            }
+        }
+        long data = (long) score << 32 | (long) move << MOVE_SHIFT
+            | (long) Math.min(depth, MAX_DEPTH) << DEPTH_SHIFT
+            | (long) _age << AGE_SHIFT | bound;
+        _table[victim] = key ^ data;
+        _table[victim + 1] = data;
+    }
+
+    /** Return the score in the (nonzero) probe result DATA. */
+    static int score(long data) {
+        return (int) (data >> 32);
+    }
+
+    /** Return the packed best move in the probe result DATA. */
+    static int move(long data) {
+        return (int) (data >>> MOVE_SHIFT) & MOVE_MASK;
+    }
+
+    /** Return the depth in the probe result DATA. */
+    static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & MAX_DEPTH;
+    }
+
+    /** Return the bound type (EXACT, LOWER, or UPPER) in the probe result
+     *  DATA. */
+    static int bound(long data) {
+        return (int) data & BOUND_MASK;
+    }
+
+    /** Return the search age recorded in DATA. */
+    private static int age(long data) {
+        return (int) (data >>> AGE_SHIFT) & AGE_MASK;
+    }
+
+    /** Return how much it is worth keeping the entry whose data is DATA,
+     *  in the current search.  Empty entries are worth nothing. */
+    private int priority(long data) {
+        if (data == 0) {
+            return -1;
+        }
+        return depth(data) + (age(data) == _age ? MAX_DEPTH + 1 : 0);
+    }
+
+    /** Return the index in _table of the first entry in the bucket for
+     *  KEY. */
+    private int bucket(long key) {
+        return 4 * ((int) (key >>> 32) & _mask);
+    }
+
+    /** Layout of a data word: score in bits 32-63, packed move in bits
+     *  9-31, depth in bits 4-8, age in bits 2-3, and bound type in bits
+     *  0-1.  No stored word is 0, since the bound type is nonzero. */
+    private static final int
+        MOVE_SHIFT = 9, MOVE_MASK = (1 << 23) - 1,
+        DEPTH_SHIFT = 4, AGE_SHIFT = 2, AGE_MASK = 3, BOUND_MASK = 3;
+
+    /** Pairs of longs (key ^ data, data), two pairs per bucket. */
+    private final long[] _table;
+    /** The number of buckets less one (a power of two less one). */
+    private final int _mask;
+    /** Age of the current search, modulo 4. */
+    private int _age;
+}
@@ -6,8 +6,18 @@ import static amazons.Piece.*;
 import static org.junit.Assert.*;
 import ucb.junit.textui;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
 
 /** The suite of all JUnit tests for the amazons package.
  *  @author Ben Chen
@@ -81,6 +91,26 @@ public class UnitTest {
         b.put(WHITE, Square.sq(7, 3));
     }
 
+    /** Return a Controller that reports as text and has no view, whose
+     *  automated players are made from TEMPLATE. */
+    private static Controller controllerFor(Player template) {
+        return new Controller(new NullView(), null, new TextReporter(),
+                              new TextPlayer(), template);
+    }
+
+    /** Leave only a White amazon on j1 on B and a Black one on a10,
+     *  hemmed in by spears on a9 and b10, so that White wins at once by
+     *  throwing a spear to b9. */
+    private static void setUpOneMoveWin(Board b) {
+        for (int k = 0; k < 100; k += 1) {
+            b.put(EMPTY, Square.sq(k));
+        }
+        b.put(SPEAR, Square.sq("a9"));
+        b.put(SPEAR, Square.sq("b10"));
+        b.put(BLACK, Square.sq("a10"));
+        b.put(WHITE, Square.sq("j1"));
+    }
+
     static final String INIT_BOARD_STATE =
             "   - - - B - - B - - -\n"
                     + "   - - - - - - - - - -\n"
@@ -126,6 +156,71 @@ public class UnitTest {
         }
     }
 
+    /** Test that a copy does not share squares with its model. */
+    @Test
+    public void testCopyIndependent() {
+        Board b = new Board();
+        Board c = new Board(b);
+        c.makeMove(Move.mv("d1-d5(h9)"));
+        c.put(SPEAR, Square.sq("j10"));
+        assertEquals(WHITE, b.get(Square.sq("d1")));
+        assertEquals(EMPTY, b.get(Square.sq("h9")));
+        assertEquals(EMPTY, b.get(Square.sq("j10")));
+        assertEquals(SPEAR, c.get(Square.sq("j10")));
+        b.copy(c);
+        assertEquals(WHITE, b.get(Square.sq("d5")));
+        assertEquals(SPEAR, b.get(Square.sq("h9")));
+        assertEquals(EMPTY, b.get(Square.sq("d1")));
+    }
+
+    /** Test that snapshots record positions, share the history before
+     *  them, and give boards made from them that history, to read and
+     *  to undo. */
+    @Test
+    public void testSnapshots() {
+        Board b = new Board();
+        BoardSnapshot start = b.snapshot();
+        assertSame(start, b.snapshot());
+        b.makeMove(Move.mv("d1-d5(h9)"));
+        b.makeMove(Move.mv("a7-c7(c10)"));
+        b.makeMove(Move.mv("g1-g4(e6)"));
+        BoardSnapshot s = b.snapshot();
+        assertEquals(3, s.numMoves());
+        assertEquals(b.key(), s.key());
+        assertEquals(BLACK, s.turn());
+        assertSame(start, s.previous().previous().previous());
+        for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+            assertEquals(b.get(Square.sq(k)), s.get(Square.sq(k)));
+        }
+        b.undo();
+        b.makeMove(Move.mv("j4-j6(j1)"));
+        BoardSnapshot branch = b.snapshot();
+        assertSame(s.previous(), branch.previous());
+        assertEquals(Move.mv("a7-c7(c10)").packed(), branch.move(1));
+
+        Board c = new Board(s);
+        assertEquals(3, c.numMoves());
+        assertEquals(Move.mv("g1-g4(e6)"), c.lastMove());
+        assertEquals(Move.mv("d1-d5(h9)").packed(), c.move(0));
+        c.makeMove(Move.mv("d10-d6(b6)"));
+        assertEquals(4, c.numMoves());
+        assertEquals(3, s.numMoves());
+        for (int k = 0; k < 4; k += 1) {
+            c.undo();
+        }
+        assertEquals(0, c.numMoves());
+        assertEquals(new Board().key(), c.key());
+        assertEquals(WHITE, c.get(Square.sq("d1")));
+        assertEquals(EMPTY, c.get(Square.sq("h9")));
+        assertTrue(c.isLegal(Move.mv("d1-d5(h9)").packed()));
+
+        Board d = new Board(branch);
+        d.put(SPEAR, Square.sq("a1"));
+        assertEquals(Move.mv("j4-j6(j1)").packed(), d.move(2));
+        assertEquals(SPEAR, d.snapshot().get(Square.sq("a1")));
+        assertEquals(EMPTY, branch.get(Square.sq("a1")));
+    }
+
     /** Test queenMove() for invalid and valid cases. */
     @Test
     public void testQueenMove() {
@@ -146,6 +241,31 @@ public class UnitTest {
         }
     }
 
+    /** Test the precomputed rays, directions, and between-sets against
+     *  queenMove for every pair of squares. */
+    @Test
+    public void testRayTables() {
+        for (int f = 0; f < 100; f += 1) {
+            Square from = Square.sq(f);
+            for (int t = 0; t < 100; t += 1) {
+                Square to = Square.sq(t);
+                int dir = Square.direction(f, t);
+                long between = Long.bitCount(Square.between(f, t, 0))
+                    + Long.bitCount(Square.between(f, t, 1));
+                if (from.isQueenMove(to)) {
+                    int dist = Math.max(Math.abs(from.col() - to.col()),
+                                        Math.abs(from.row() - to.row()));
+                    assertEquals(to, from.queenMove(dir, dist));
+                    assertEquals(t, Square.ray(f, dir)[dist - 1]);
+                    assertEquals(dist - 1, between);
+                } else {
+                    assertEquals(-1, dir);
+                    assertEquals(0, between);
+                }
+            }
+        }
+    }
+
     /** Test isLegal and isUnblockedMove using smiley board. */
     @Test
     public void testLegalMoves() {
@@ -223,6 +343,92 @@ public class UnitTest {
         assertEquals(test2.size(), result.size());
     }
 
+    /** Test that generateMoves and countMoves agree with the legal move
+     *  iterator, both on the initial board and on the smiley board. */
+    @Test
+    public void testGenerateMoves() {
+        Board b = new Board();
+        for (int k = 0; k < 2; k += 1) {
+            for (Piece side : new Piece[] { WHITE, BLACK }) {
+                int[] moves = new int[Board.MAX_MOVES];
+                int n = b.generateMoves(side, moves);
+                Iterator<Move> iter = b.legalMoves(side);
+                for (int i = 0; i < n; i += 1) {
+                    assertEquals(iter.next(), Move.mv(moves[i]));
+                }
+                assertFalse(iter.hasNext());
+                assertEquals(n, b.countMoves(side));
+                assertEquals(n > 0, b.hasMove(side));
+                int[] few = new int[3];
+                assertEquals(n, b.generateMoves(side, few));
+                assertEquals(moves[2], few[2]);
+            }
+            makeSmile(b);
+        }
+    }
+
+    /** Check that hasMove agrees with legalMoves through a whole game
+     *  played with pseudo-random moves, and through undoing it. */
+    @Test
+    public void testHasMove() {
+        Board b = new Board();
+        Random random = new Random(7);
+        int[] moves = new int[Board.MAX_MOVES];
+        while (b.winner() == null) {
+            checkHasMove(b);
+            int n = b.generateMoves(b.turn(), moves);
+            b.makeMove(moves[random.nextInt(n)]);
+        }
+        checkHasMove(b);
+        while (b.numMoves() > 0) {
+            b.undo();
+            checkHasMove(b);
+        }
+    }
+
+    /** Check hasMove against legalMoves for both sides on B. */
+    private static void checkHasMove(Board b) {
+        for (Piece side : new Piece[] { WHITE, BLACK }) {
+            assertEquals(b.legalMoves(side).hasNext(), b.hasMove(side));
+        }
+        assertEquals(b.hasMove(b.turn()), new Board(b).hasMove(b.turn()));
+    }
+
+    /** Test making moves in two halves. */
+    @Test
+    public void testHalfMoves() {
+        Board b = new Board();
+        makeSmile(b);
+        Board whole = new Board(b);
+        long key = b.key();
+        int[] queenMoves = new int[Board.MAX_MOVES],
+            spears = new int[Board.MAX_MOVES];
+        int n = b.generateQueenMoves(b.turn(), queenMoves), total = 0;
+        for (int i = 0; i < n; i += 1) {
+            b.makeQueenMove(Move.fromIndex(queenMoves[i]),
+                            Move.toIndex(queenMoves[i]));
+            assertTrue(b.spearPending());
+            assertTrue(key != b.key());
+            int k = b.generateSpears(spears);
+            total += k;
+            b.throwSpear(Move.spearIndex(spears[k - 1]));
+            whole.makeMove(spears[k - 1]);
+            assertFalse(b.spearPending());
+            assertEquals(whole.key(), b.key());
+            assertEquals(whole.turn(), b.turn());
+            assertEquals(whole.lastMove(), b.lastMove());
+            b.unthrowSpear();
+            whole.undo();
+            assertTrue(b.spearPending());
+            assertEquals(k, b.generateSpears(spears));
+            b.undoQueenMove();
+            assertFalse(b.spearPending());
+            assertEquals(key, b.key());
+        }
+        assertEquals(b.countMoves(b.turn()), total);
+        assertEquals(whole.toString(), b.toString());
+    }
+
     /** Test makeMove and undo. */
     @Test
     public void testGame() {
@@ -247,6 +453,738 @@ public class UnitTest {
         assertEquals(EMPTY, b.get(Square.sq("a10")));
     }
 
+    /** Test packed moves: parsing and printing them, checking their
+     *  legality, and the Moves viewing them. */
+    @Test
+    public void testPackedMoves() {
+        Board b = new Board();
+        int move = Move.parse("d1-d5(h9)");
+        assertEquals(Move.pack(Square.sq("d1").index(),
+                               Square.sq("d5").index(),
+                               Square.sq("h9").index()), move);
+        assertEquals(move, Move.parse("d1 d5 h9"));
+        assertEquals("d1-d5(h9)", Move.toString(move));
+        assertEquals(0, Move.parse("d1-e3(e4)"));
+        assertEquals(0, Move.parse("d1-d5"));
+        assertTrue(Move.mv(move) == Move.mv("d1-d5(h9)"));
+        assertEquals(move, Move.mv(move).packed());
+        assertTrue(b.isLegal(move));
+        assertFalse(b.isLegal(0));
+        assertFalse(b.isLegal(Move.parse("d1-d10(d9)")));
+        assertFalse(b.isLegal(Move.pack(3, 13, 120)));
+        assertEquals(0, b.lastPackedMove());
+        assertNull(b.lastMove());
+        b.makeMove(move);
+        assertEquals(move, b.lastPackedMove());
+        assertFalse(b.isLegal(move));
+    }
+
+    /** Test writing and reading positions in notation. */
+    @Test
+    public void testNotation() {
+        Board b = new Board();
+        String initial = "3B2B3/10/10/B8B/10/10/W8W/10/10/3W2W3 w";
+        assertEquals(initial, b.notation());
+        makeSmile(b);
+        Board c = new Board();
+        c.setPosition(b.notation());
+        assertEquals(b.toString(), c.toString());
+        assertEquals(b.key(), c.key());
+        assertEquals(b.turn(), c.turn());
+        assertEquals(0, c.numMoves());
+        assertEquals(b.notation(), c.notation());
+        c.setPosition(initial);
+        assertEquals(new Board().key(), c.key());
+        c.setPosition("  " + initial.replace(" w", "  b") + " ");
+        assertEquals(BLACK, c.turn());
+        assertNotEquals(new Board().key(), c.key());
+        for (String bad : new String[] {
+                "", initial.replace(" w", ""), initial.replace("w", "x"),
+                initial.replace("/10/10/B8B", "/10/B8B"),
+                initial.replace("B8B", "B9B"), initial.replace("B8B", "B8"),
+                initial.replace("B8B", "B8Q") }) {
+            try {
+                c.setPosition(bad);
+                fail("accepted " + bad);
+            } catch (IllegalArgumentException excp) {
+                assertEquals(BLACK, c.turn());
+            }
+        }
+    }
+
+    /** Test that hash keys depend only on the position, not on the
+     *  order of the moves reaching it, and are restored by undo. */
+    @Test
+    public void testKeys() {
+        Board b = new Board(), c = new Board();
+        long initial = b.key();
+        b.makeMove(Move.mv("d1-d5(h9)"));
+        assertNotEquals(initial, b.key());
+        b.makeMove(Move.mv("a7-c7(c10)"));
+        b.makeMove(Move.mv("g1-g4(g2)"));
+        c.makeMove(Move.mv("g1-g4(g2)"));
+        c.makeMove(Move.mv("a7-c7(c10)"));
+        c.makeMove(Move.mv("d1-d5(h9)"));
+        assertEquals(b.key(), c.key());
+        c.undo();
+        c.undo();
+        c.undo();
+        assertEquals(initial, c.key());
+        c.put(SPEAR, Square.sq("e5"));
+        c.put(EMPTY, Square.sq("e5"));
+        assertEquals(initial, c.key());
+    }
+
+    /** Test storing and probing the transposition table. */
+    @Test
+    public void testTranspositionTable() {
+        TranspositionTable table = new TranspositionTable(1);
+        int move = Move.mv("d1-d5(h9)").packed();
+        assertEquals(0, table.probe(42L));
+        table.store(42L, 3, TranspositionTable.LOWER, -1234, move);
+        long data = table.probe(42L);
+        assertEquals(-1234, TranspositionTable.score(data));
+        assertEquals(move, TranspositionTable.move(data));
+        assertEquals(3, TranspositionTable.depth(data));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(data));
+        assertEquals(0, table.probe(43L));
+        table.clear();
+        assertEquals(0, table.probe(42L));
+    }
+
+    /** Check the order MoveOrdering puts moves in after known cutoffs:
+     *  the hash move, the killers (latest first, without duplicates),
+     *  the counter-move, and then the rest by history, and by whether
+     *  the opponent can reach them; that history scores are halved by
+     *  newSearch and on passing MAX_HISTORY; and that the ordering
+     *  makes a search visit fewer nodes than generation order. */
+    @Test
+    public void testMoveOrdering() {
+        Board b = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        long[] keys = new long[Board.MAX_MOVES];
+        int n = b.generateMoves(WHITE, moves);
+        int[] original = Arrays.copyOf(moves, n);
+        int[] m = new int[7];
+        for (int i = 0; i < m.length; i += 1) {
+            m[i] = original[7 * i + 5];
+        }
+        int previous = Move.mv("g10-g5(g3)").packed();
+        MoveOrdering ordering = new MoveOrdering();
+        ordering.newSearch(b);
+        ordering.cutoff(m[1], 2, 1, 0);
+        ordering.cutoff(m[2], 2, 1, 0);
+        ordering.cutoff(m[2], 2, 1, 0);
+        ordering.cutoff(m[3], 5, 1, previous);
+        ordering.cutoff(m[4], 9, 3, 0);
+        ordering.cutoff(m[5], 9, 2, 0);
+        ordering.order(moves, n, WHITE, 2, m[0], previous, keys);
+
+        boolean[] blackReach = new boolean[100];
+        for (int k = 0; k < 100; k += 1) {
+            if (b.get(Square.sq(k)) == BLACK) {
+                Iterator<Square> iter = b.reachableFrom(Square.sq(k), null);
+                while (iter.hasNext()) {
+                    blackReach[iter.next().index()] = true;
+                }
+            }
+        }
+        int[] expected = Arrays.copyOf(new int[] { m[0], m[2], m[1], m[3],
+                                                   m[4], m[5] }, n);
+        int[] rest = Arrays.stream(original)
+            .filter(mv -> Arrays.stream(m, 0, 6).noneMatch(x -> x == mv))
+            .boxed()
+            .sorted((x, y) -> {
+                boolean rx = blackReach[Move.toIndex(x)]
+                    || blackReach[Move.spearIndex(x)],
+                    ry = blackReach[Move.toIndex(y)]
+                    || blackReach[Move.spearIndex(y)];
+                return rx != ry ? (rx ? -1 : 1) : Integer.compare(x, y);
+            })
+            .mapToInt(Integer::intValue).toArray();
+        System.arraycopy(rest, 0, expected, 6, rest.length);
+        assertArrayEquals(expected, Arrays.copyOf(moves, n));
+
+        ordering.cutoff(m[6], 2, 1, 0);
+        ordering.order(moves, n, WHITE, 2, 0, 0, keys);
+        assertEquals(m[6], moves[0]);
+        assertEquals(m[2], moves[1]);
+
+        ordering.newSearch(b);
+        for (int k = 0; k < 3; k += 1) {
+            ordering.cutoff(m[5], 9, 1, 0);
+        }
+        ordering.order(moves, n, WHITE, 2, 0, 0, keys);
+        assertEquals(m[5], moves[0]);
+        assertEquals(m[4], moves[1]);
+
+        ordering.cutoff(m[4], 9, 2, 0);
+        ordering.cutoff(m[4], 9, 1, 0);
+        int deep = (int) Math.sqrt(MoveOrdering.MAX_HISTORY) + 1;
+        ordering.cutoff(m[0], 9, deep, 0);
+        for (int k = 0; k < 3; k += 1) {
+            ordering.cutoff(m[5], 9, 1, 0);
+        }
+        ordering.order(moves, n, WHITE, 2, 0, 0, keys);
+        assertEquals(m[0], moves[0]);
+        assertEquals(m[5], moves[1]);
+        assertEquals(m[4], moves[2]);
+
+        Random random = new Random(13);
+        for (int k = 0; k < 50; k += 1) {
+            n = b.generateMoves(b.turn(), moves);
+            b.makeMove(moves[random.nextInt(n)]);
+        }
+        MoveOrdering unordered = new MoveOrdering() {
+            @Override
+            int orderFirst(int[] moves, int n, int ply, int hashMove,
+                           int previous) {
+                return 0;
+            }
+
+            @Override
+            void orderRest(int[] moves, int from, int to, Piece side,
+                           long[] keys) {
+            }
+        };
+        long[] ordered = searchNodes(b, new MoveOrdering(), 3),
+            plain = searchNodes(b, unordered, 3);
+        assertEquals(ordered[0], plain[0]);
+        assertTrue(ordered[1] < plain[1]);
+    }
+
+    /** Return the value of B for White, who is to move, searched to
+     *  DEPTH plies (with no transposition table), with moves ordered by
+     *  ORDERING, and the number of nodes visited. */
+    private static long[] searchNodes(Board b, MoveOrdering ordering,
+                                      int depth) {
+        Searcher searcher =
+            new Searcher(null, Evaluator.create(Evaluator.MOBILITY),
+                         new AtomicBoolean(), ordering);
+        searcher.setRoot(b);
+        int n = searcher.orderMoves(depth, 0);
+        int best = -Searcher.INFTY;
+        for (int i = 0; i < n; i += 1) {
+            best = Math.max(best,
+                            searcher.searchMove(searcher.moves(depth)[i],
+                                                depth - 1, -1, best,
+                                                Searcher.INFTY));
+        }
+        return new long[] { best, searcher.nodes() };
+    }
+
+    /** Test that the AI finds an immediately winning move, both at a
+     *  fixed depth and under time control. */
+    @Test
+    public void testAIFindsWin() {
+        for (int depth = 0; depth <= 4; depth += 1) {
+            AI template = new AI();
+            template.setDepth(depth / 2);
+            template.setSplitPly(depth % 2 == 1);
+            Controller controller = controllerFor(template);
+            Board b = controller.board();
+            setUpOneMoveWin(b);
+            Move m = Move.mv(template.create(WHITE, controller).myMove());
+            assertTrue(b.isLegal(m));
+            b.makeMove(m);
+            assertEquals(WHITE, b.winner());
+        }
+    }
+
+    /** Check that pondering AIs play legal moves, whether or not they
+     *  predict the reply, and leave the Controller's board alone while
+     *  they ponder. */
+    @Test
+    public void testPonder() {
+        AI template = new AI();
+        template.setDepth(2);
+        template.setPonder(true);
+        Controller controller = controllerFor(template);
+        Board b = controller.board();
+        Player white = template.create(WHITE, controller);
+        AI other = new AI();
+        other.setDepth(1);
+        Player black = other.create(BLACK, controller);
+        for (int k = 0; k < 6; k += 1) {
+            Player player = k % 2 == 0 ? white : black;
+            long key = b.key();
+            Move m = Move.mv(player.myMove());
+            assertEquals(key, b.key());
+            assertTrue(b.isLegal(m));
+            b.makeMove(m);
+        }
+    }
+
+    /** Check that the Monte Carlo player, with one thread and with
+     *  several, finds a winning move, and plays legal moves through a
+     *  game (reusing its tree). */
+    @Test
+    public void testMonteCarloAI() {
+        for (int threads = 1; threads <= 2; threads += 1) {
+            MonteCarloAI template = new MonteCarloAI();
+            template.setPlayouts(3000);
+            template.setThreads(threads);
+            Controller controller = controllerFor(template);
+            controller.setSeed(threads);
+            Board b = controller.board();
+            setUpOneMoveWin(b);
+            Player white = template.create(WHITE, controller);
+            Move m = Move.mv(white.myMove());
+            assertTrue(b.isLegal(m));
+            white.close();
+            assertTrue(b.isLegal(Move.mv(white.myMove())));
+            white.close();
+            b.makeMove(m);
+            assertEquals(WHITE, b.winner());
+        }
+        MonteCarloAI template = new MonteCarloAI();
+        template.setPlayouts(300);
+        Controller controller = controllerFor(template);
+        Board b = controller.board();
+        Player white = template.create(WHITE, controller),
+            black = template.create(BLACK, controller);
+        for (int k = 0; k < 6 && b.winner() == null; k += 1) {
+            Player player = b.turn() == WHITE ? white : black;
+            Move m = Move.mv(player.myMove());
+            assertTrue(b.isLegal(m));
+            b.makeMove(m);
+        }
+    }
+
+    /** Build a small opening book, and check that it is read back and
+     *  used by the AI. */
+    @Test
+    public void testOpeningBook() throws IOException {
+        File file = File.createTempFile("book", ".bin");
+        file.deleteOnExit();
+        OpeningBookBuilder builder =
+            new OpeningBookBuilder(1, 2, Evaluator.MOBILITY);
+        assertEquals(2 + 2 * 2, builder.build(file, 2, 2));
+        OpeningBook book = new OpeningBook(file);
+        assertEquals(6, book.size());
+        Board b = new Board();
+        Random random = new Random(3);
+        int first = book.probe(b.key(), random::nextInt);
+        assertTrue(b.isLegal(Move.mv(first)));
+        assertEquals(0, book.probe(b.key() + 1, random::nextInt));
+        b.makeMove(first);
+        assertTrue(b.isLegal(Move.mv(book.probe(b.key(),
+                                                random::nextInt))));
+
+        AI template = new AI();
+        template.setBook(book);
+        Controller controller = controllerFor(template);
+        Board start = controller.board();
+        Move m = Move.mv(template.create(WHITE, controller).myMove());
+        HashSet<Integer> bookMoves = new HashSet<>();
+        for (int k = 0; k < 100; k += 1) {
+            bookMoves.add(book.probe(start.key(), random::nextInt));
+        }
+        assertTrue(bookMoves.contains(m.packed()));
+        try {
+            new OpeningBook(new File(file.getParentFile(), "."));
+            fail("directory read as a book");
+        } catch (IOException | IllegalArgumentException excp) {
+            /* Expected. */
+        }
+    }
+
+    /** Record random games, some from several threads at once, and
+     *  check that they are read back move for move, with their
+     *  positions at every ply, and that appending keeps earlier
+     *  games. */
+    @Test
+    public void testGameRecords() throws IOException {
+        File file = File.createTempFile("games", ".bin");
+        file.delete();
+        file.deleteOnExit();
+        int games = 12;
+        Board[] played = new Board[games];
+        for (int g = 0; g < games; g += 1) {
+            Random random = new Random(g);
+            played[g] = new Board();
+            int[] moves = new int[Board.MAX_MOVES];
+            int limit = g == 0 ? 0 : g % 3 == 0 ? 10 : Board.MAX_MOVES;
+            for (int k = 0; k < limit && played[g].winner() == null;
+                 k += 1) {
+                int n = played[g].generateMoves(played[g].turn(), moves);
+                played[g].makeMove(moves[random.nextInt(n)]);
+            }
+        }
+        GameRecorder recorder = new GameRecorder(file);
+        IntStream.range(0, games / 2).parallel()
+            .forEach(g -> recorder.record(played[g], played[g].winner()));
+        recorder.close();
+        assertEquals(games / 2, recorder.recorded());
+        try (GameRecorder more = new GameRecorder(file)) {
+            for (int g = games / 2; g < games; g += 1) {
+                more.record(played[g], played[g].winner());
+            }
+        }
+
+        GameArchive archive = new GameArchive(file);
+        assertEquals(games, archive.size());
+        HashSet<Long> first = new HashSet<>(), expected = new HashSet<>();
+        for (int g = 0; g < games / 2; g += 1) {
+            first.add(played[g].key() * 31 + played[g].numMoves());
+            Board b = archive.position(g, archive.length(g));
+            expected.add(b.key() * 31 + b.numMoves());
+        }
+        assertEquals(expected, first);
+        for (int g = games / 2; g < games; g += 1) {
+            assertEquals(played[g].numMoves(), archive.length(g));
+            assertEquals(played[g].winner(), archive.winner(g));
+            Board replay = new Board();
+            for (int k = 0; k <= archive.length(g); k += 1) {
+                Board b = archive.position(g, k);
+                assertEquals(replay.key(), b.key());
+                if (k < archive.length(g)) {
+                    assertEquals(played[g].move(k), archive.move(g, k));
+                    replay.makeMove(archive.move(g, k));
+                }
+            }
+            assertEquals(played[g].toString(), replay.toString());
+        }
+        try {
+            new GameRecorder(new File(file.getParentFile(), "."));
+            fail("directory opened as a game record");
+        } catch (IOException | IllegalArgumentException excp) {
+            /* Expected. */
+        }
+    }
+
+    /** Check the perft counts from the initial position and from one
+     *  later on, against known values and the move iterator, and that
+     *  divide leaves the board alone. */
+    @Test
+    public void testPerft() {
+        Board b = new Board();
+        assertEquals(1, Perft.count(b, 0));
+        assertEquals(2176, Perft.count(b, 1));
+        assertEquals(4307152, Perft.count(b, 2));
+        assertEquals(4307152, Perft.countByIterator(b, 2));
+        makeSmile(b);
+        long key = b.key();
+        int[] moves = new int[Board.MAX_MOVES];
+        long[] counts = Perft.divide(b, 2, 2, moves);
+        assertEquals(key, b.key());
+        long total = 0;
+        for (int i = 0; i < counts.length; i += 1) {
+            Board child = new Board(b);
+            child.makeMove(moves[i]);
+            assertEquals(Perft.countByIterator(child, 1), counts[i]);
+            total += counts[i];
+        }
+        assertEquals(Perft.countByIterator(b, 2), total);
+    }
+
+    /** Check that a small tournament plays all its games, concurrently,
+     *  that moves parse correctly from several threads at once, and the
+     *  Elo and SPRT arithmetic. */
+    @Test
+    public void testTournament() {
+        Tournament tournament =
+            new Tournament(Tournament.engine("depth=1,tt=1"),
+                           Tournament.engine("depth=1,tt=1,eval=territory"),
+                           7);
+        tournament.setOpeningMoves(2);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        tournament.run(4, 2, new PrintStream(output), 2);
+        assertEquals(4, tournament.played());
+        assertTrue(output.toString().startsWith("Games 2: "));
+        assertTrue(output.toString().contains("Games 4: "));
+
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = new Board().generateMoves(WHITE, moves);
+        assertTrue(IntStream.range(0, 16 * n).parallel().allMatch(k -> {
+            Move m = Move.mv(moves[k % n]);
+            return Move.mv(m.toString()) == m;
+        }));
+
+        assertEquals(0.0, Tournament.elo(0.5), 1e-9);
+        assertEquals(0.0, Tournament.llr(0, 0, 0, 10), 1e-9);
+        assertTrue(Tournament.llr(30, 10, 0, 10) > 0);
+        assertTrue(Tournament.llr(10, 30, 0, 10) < 0);
+        try {
+            Tournament.engine("depth=1,nonesuch");
+            fail("unknown setting accepted");
+        } catch (IllegalArgumentException excp) {
+            /* Expected. */
+        }
+    }
+
+    /** Check that the AI's search statistics add up, with one thread and
+     *  with two. */
+    @Test
+    public void testSearchStats() {
+        for (int threads = 1; threads <= 2; threads += 1) {
+            AI template = new AI();
+            template.setDepth(2);
+            template.setThreads(threads);
+            Controller controller = controllerFor(template);
+            Player white = template.create(WHITE, controller);
+            assertNull(white.statistics());
+            white.myMove();
+            String stats = white.statistics();
+            assertTrue(stats.startsWith("depth 2, " + white.nodes()
+                                        + " nodes"));
+            assertTrue(stats.contains("\n  depth 1: 2176 nodes"));
+            assertTrue(stats.contains("EBF "));
+        }
+        SearchStats stats = new SearchStats(), other = new SearchStats();
+        stats.countNode();
+        stats.countProbe(true);
+        other.countProbe(false);
+        other.countCutoff(0);
+        other.countCutoff(SearchStats.CUTOFF_SLOTS + 3);
+        other.iteration(1, 10, 1);
+        other.iteration(2, 35, 1);
+        stats.add(other);
+        assertEquals(1, stats.nodes());
+        assertEquals(2, stats.probes());
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.cutoffs(SearchStats.CUTOFF_SLOTS - 1));
+        assertEquals(3.5, other.branchingFactor(), 1e-9);
+        assertEquals(0.0, stats.branchingFactor(), 1e-9);
+    }
+
+    /** Check that a batch of positions analyzed by several workers gets
+     *  one result per position, in order, the same as analyzing each
+     *  alone. */
+    @Test
+    public void testBatchAnalysis() throws IOException {
+        AI template = new AI();
+        template.setDepth(1);
+        Random random = new Random(5);
+        int[] moves = new int[Board.MAX_MOVES];
+        StringBuilder input = new StringBuilder("# positions\n\n");
+        String[] expected = new String[13];
+        for (int i = 0; i < expected.length; i += 1) {
+            Board b = new Board();
+            for (int k = 0; k < 3 * i && b.winner() == null; k += 1) {
+                int n = b.generateMoves(b.turn(), moves);
+                b.makeMove(moves[random.nextInt(n)]);
+            }
+            input.append(b.notation()).append('\n');
+            AI.Analysis result =
+                ((AI) template.create(null, null)).analyze(b);
+            assertEquals(1, result.depth);
+            assertTrue(b.isLegal(result.move));
+            expected[i] = result.toString();
+        }
+        input.append("3B2B3/10 w\n");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(expected.length + 1,
+                     BatchAnalysis.run(
+                         new BufferedReader(new StringReader(
+                             input.toString())),
+                         new PrintStream(output), template, 3));
+        String[] lines = output.toString().split("\\R");
+        assertEquals(expected.length + 1, lines.length);
+        for (int i = 0; i < expected.length; i += 1) {
+            assertEquals(expected[i], lines[i]);
+        }
+        assertTrue(lines[expected.length].startsWith("error "));
+    }
+
+    /** Check that the principal variation an analysis reports starts
+     *  with its move and can be played out, and that the move and its
+     *  value do not depend on the number of threads searching. */
+    @Test
+    public void testPrincipalVariation() {
+        Random random = new Random(7);
+        int[] moves = new int[Board.MAX_MOVES];
+        Board b = new Board();
+        for (int k = 0; k < 30; k += 1) {
+            int n = b.generateMoves(b.turn(), moves);
+            b.makeMove(moves[random.nextInt(n)]);
+        }
+        AI.Analysis[] results = new AI.Analysis[2];
+        for (int threads = 1; threads <= 2; threads += 1) {
+            AI template = new AI();
+            template.setDepth(3);
+            template.setThreads(threads);
+            AI.Analysis result =
+                ((AI) template.create(null, null)).analyze(b);
+            assertEquals(3, result.depth);
+            assertTrue(result.pv.length > 0 && result.pv.length <= 3);
+            assertEquals(result.move, result.pv[0]);
+            Board line = new Board(b);
+            for (int move : result.pv) {
+                assertTrue(line.isLegal(move));
+                line.makeMove(move);
+            }
+            assertTrue(result.toString().contains(
+                " pv " + Move.toString(result.move)));
+            results[threads - 1] = result;
+        }
+        assertEquals(results[0].move, results[1].move);
+        assertEquals(results[0].value, results[1].value);
+    }
+
+    /** Check that MoveOrdering.prune keeps the moves Board.moveScore
+     *  rates best, in order, and that selective searches choose legal
+     *  moves, with fewer nodes than a full-width search. */
+    @Test
+    public void testSelectiveSearch() {
+        Random random = new Random(11);
+        int[] moves = new int[Board.MAX_MOVES];
+        Board b = new Board();
+        for (int k = 0; k < 40; k += 1) {
+            int n = b.generateMoves(b.turn(), moves);
+            b.makeMove(moves[random.nextInt(n)]);
+        }
+        int n = b.generateMoves(b.turn(), moves);
+        int[] original = Arrays.copyOf(moves, n);
+        int kept = new MoveOrdering().prune(b, moves, 2, n, 10,
+                                            new long[n]);
+        assertEquals(12, kept);
+        int[] pruned = Arrays.copyOf(moves, n);
+        Arrays.sort(pruned);
+        Arrays.sort(original);
+        assertArrayEquals(original, pruned);
+        for (int i = 2; i < kept; i += 1) {
+            for (int j = kept; j < n; j += 1) {
+                assertTrue(b.moveScore(moves[i]) >= b.moveScore(moves[j]));
+            }
+        }
+        long[] nodes = new long[2];
+        for (int selective = 0; selective <= 1; selective += 1) {
+            AI template = new AI();
+            template.setDepth(3);
+            if (selective == 1) {
+                template.setBeam(AI.beamWidths("10, 5"));
+                template.setReductions(true);
+            }
+            AI.Analysis result =
+                ((AI) template.create(null, null)).analyze(b);
+            assertEquals(3, result.depth);
+            assertTrue(b.isLegal(result.move));
+            nodes[selective] = result.nodes;
+        }
+        assertTrue(nodes[1] < nodes[0]);
+        try {
+            new AI().setBeam(4, -1);
+            fail("negative beam width accepted");
+        } catch (IllegalArgumentException excp) {
+            /* Expected. */
+        }
+    }
+
+    /** Check that RegionSolver finds the regions of walled-off amazons,
+     *  the exact number of moves each side can make in them, and the
+     *  winner, that an AI analyzes the position as won and plays its
+     *  moves, and that the solver gives up at its deadline. */
+    @Test
+    public void testRegionSolver() {
+        RegionSolver solver = new RegionSolver();
+        assertFalse(solver.decompose(new Board()));
+
+        AI template = new AI();
+        Controller controller = controllerFor(template);
+        Board b = controller.board();
+        for (int k = 0; k < 100; k += 1) {
+            b.put(SPEAR, Square.sq(k));
+        }
+        for (String sq : new String[] { "a1", "b1", "d1", "e1",
+                                        "i10", "j9", "a10" }) {
+            b.put(EMPTY, Square.sq(sq));
+        }
+        b.put(WHITE, Square.sq("c1"));
+        b.put(BLACK, Square.sq("j10"));
+        assertTrue(solver.decompose(b));
+        assertEquals(3, solver.regions());
+        assertEquals(4, solver.moves(WHITE, Long.MAX_VALUE));
+        assertEquals(2, solver.moves(BLACK, Long.MAX_VALUE));
+        assertEquals(WHITE, solver.winner(WHITE, Long.MAX_VALUE));
+        assertEquals(WHITE, solver.winner(BLACK, Long.MAX_VALUE));
+        AI.Analysis analysis = template.analyze(b);
+        assertEquals(Searcher.WINNING_VALUE, analysis.value);
+        assertTrue(b.isLegal(analysis.move));
+
+        int best = solver.bestMove(WHITE, Long.MAX_VALUE);
+        Board after = new Board(b);
+        after.makeMove(best);
+        assertTrue(solver.decompose(after));
+        assertEquals(3, solver.moves(WHITE, Long.MAX_VALUE));
+
+        Move m = Move.mv(template.create(WHITE, controller).myMove());
+        b.makeMove(m);
+        assertTrue(solver.decompose(b));
+        assertEquals(3, solver.moves(WHITE, Long.MAX_VALUE));
+        assertEquals(2, solver.moves(BLACK, Long.MAX_VALUE));
+
+        for (int col = 0; col < 4; col += 1) {
+            for (int row = 0; row < 4; row += 1) {
+                b.put(EMPTY, Square.sq(col, row));
+            }
+        }
+        b.put(WHITE, Square.sq("b2"));
+        assertTrue(solver.decompose(b));
+        assertEquals(-1, solver.moves(WHITE, System.nanoTime()));
+        assertTrue(solver.decompose(b));
+        assertEquals(15, solver.moves(WHITE, Long.MAX_VALUE));
+    }
+
+    /** Check that both evaluators favor the side that is not walled
+     *  in, and that the territory evaluator scores separated regions by
+     *  their sizes. */
+    @Test
+    public void testEvaluators() {
+        Board b = new Board();
+        for (int k = 0; k < 100; k += 1) {
+            b.put(EMPTY, Square.sq(k));
+        }
+        b.put(WHITE, Square.sq("a1"));
+        b.put(BLACK, Square.sq("j10"));
+        for (String sq : new String[] { "h8", "h9", "h10", "i8", "j8" }) {
+            b.put(SPEAR, Square.sq(sq));
+        }
+        Evaluator mobility = Evaluator.create(Evaluator.MOBILITY),
+            territory = Evaluator.create(Evaluator.TERRITORY);
+        assertTrue(mobility.score(b) > 0);
+        assertEquals(5 * (90 - 3), territory.score(b));
+        b.put(BLACK, Square.sq("a1"));
+        b.put(WHITE, Square.sq("j10"));
+        assertTrue(mobility.score(b) < 0);
+        assertEquals(-5 * (90 - 3), territory.score(b));
+        try {
+            Evaluator.create("nonesuch");
+            fail("unknown evaluator accepted");
+        } catch (IllegalArgumentException excp) {
+            /* Expected. */
+        }
+    }
+
+    /** Check that searching with several threads chooses the same move
+     *  as searching with one. */
+    @Test
+    public void testParallelSearch() {
+        String[] moves = { "d1-d7(g7)", "g10-g8(e8)", "a4-c2(c7)" };
+        String chosen = null;
+        for (int threads = 1; threads <= 3; threads += 1) {
+            AI template = new AI();
+            template.setDepth(2);
+            template.setThreads(threads);
+            Controller controller = controllerFor(template);
+            Board b = controller.board();
+            for (String m : moves) {
+                b.makeMove(Move.mv(m));
+            }
+            Player black = template.create(BLACK, controller);
+            String move = black.myMove();
+            assertTrue(b.isLegal(Move.mv(move)));
+            if (chosen == null) {
+                chosen = move;
+            } else {
+                assertEquals(chosen, move);
+            }
+            black.close();
+            assertEquals(chosen, black.myMove());
+            black.close();
+        }
+    }
+
     /** Test if the game correctly outputs winner. */
     @Test
     public void testWinner() {
@@ -267,5 +1205,11 @@ public class UnitTest {
         assertEquals(m, b.lastMove());
         assertFalse(b.legalMoves().hasNext());
         assertEquals(WHITE, b.winner());
+        b.undo();
+        assertNull(b.winner());
+        assertEquals(WHITE, b.turn());
+        assertEquals(WHITE, b.get(Square.sq("j1")));
+        assertEquals(EMPTY, b.get(Square.sq("b9")));
+        assertTrue(b.legalMoves().hasNext());
     }
 }
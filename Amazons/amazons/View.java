@@ -4,7 +4,8 @@ package amazons;
  *  @author P. N. Hilfinger */
 interface View {
 
-    /** Update the current view according to BOARD. */
-    void update(Board board);
+    /** Update the current view according to BOARD, a snapshot of the
+     *  game's position that may be kept without copying. */
+    void update(BoardSnapshot board);
 
 }
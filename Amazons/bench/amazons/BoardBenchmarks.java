@@ -0,0 +1,115 @@
+package amazons;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** JMH benchmarks of the Board operations the players lean on: move
+ *  enumeration (through the Iterator and through the packed-int
+ *  generator), making and undoing moves, copying, legality checks, and
+ *  parsing moves, each on the positions in Positions.
+ *  @author Ben Chen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmarks {
+
+    /** The name of the position benchmarked. */
+    @Param({ Positions.OPENING, Positions.MIDDLEGAME, Positions.ENDGAME })
+    public String position;
+
+    /** Set up the position and its legal moves. */
+    @Setup
+    public void setUp() {
+        _board = Positions.get(position);
+        _scratch = new Board(_board);
+        _moves = new int[Board.MAX_MOVES];
+        _count = _board.generateMoves(_board.turn(), _moves);
+        _texts = new String[_count];
+        _moveObjects = new Move[_count];
+        for (int i = 0; i < _count; i += 1) {
+            _moveObjects[i] = Move.mv(_moves[i]);
+            _texts[i] = _moveObjects[i].toString();
+        }
+    }
+
+    /** Enumerate the legal moves through Board.legalMoves. */
+    @Benchmark
+    public void legalMoves(Blackhole sink) {
+        for (Iterator<Move> iter = _board.legalMoves(); iter.hasNext();) {
+            sink.consume(iter.next());
+        }
+    }
+
+    /** Enumerate the legal moves as packed ints. */
+    @Benchmark
+    public int generateMoves() {
+        return _board.generateMoves(_board.turn(), _moves);
+    }
+
+    /** Make and undo every legal move. */
+    @Benchmark
+    public long makeUndo() {
+        long keys = 0;
+        for (int i = 0; i < _count; i += 1) {
+            _scratch.makeMove(_moves[i]);
+            keys += _scratch.key();
+            _scratch.undo();
+        }
+        return keys;
+    }
+
+    /** Copy the position. */
+    @Benchmark
+    public Board copy() {
+        _scratch.copy(_board);
+        return _scratch;
+    }
+
+    /** Check the legality of every legal move. */
+    @Benchmark
+    public int isLegal() {
+        int legal = 0;
+        for (Move move : _moveObjects) {
+            legal += _board.isLegal(move) ? 1 : 0;
+        }
+        return legal;
+    }
+
+    /** Parse every legal move from its text. */
+    @Benchmark
+    public void parseMoves(Blackhole sink) {
+        for (String text : _texts) {
+            sink.consume(Move.mv(text));
+        }
+    }
+
+    /** The position benchmarked. */
+    private Board _board;
+    /** A copy of _board to make moves on. */
+    private Board _scratch;
+    /** The legal moves in _board, packed, and their number. */
+    private int[] _moves;
+    /** The number of legal moves in _board. */
+    private int _count;
+    /** The legal moves in _board, as Moves and as text. */
+    private Move[] _moveObjects;
+    /** The legal moves in _board as text. */
+    private String[] _texts;
+}
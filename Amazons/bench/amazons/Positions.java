@@ -0,0 +1,60 @@
+package amazons;
+
+import java.util.Random;
+
+/** The catalogue of positions the benchmarks run on.  Each is reached
+ *  from the initial position by a fixed number of moves chosen
+ *  pseudo-randomly with a fixed seed, so every run sees the same
+ *  positions.
+ *  @author Ben Chen
+ */
+final class Positions {
+
+    /** The names of the catalogued positions, for use in @Param. */
+    static final String OPENING = "opening", MIDDLEGAME = "middlegame",
+        ENDGAME = "endgame";
+
+    /** Not instantiable. */
+    private Positions() {
+    }
+
+    /** Return a new Board holding the position named NAME. */
+    static Board get(String name) {
+        switch (name) {
+        case OPENING:
+            return play(0);
+        case MIDDLEGAME:
+            return play(MIDDLEGAME_MOVES);
+        case ENDGAME:
+            return play(ENDGAME_MOVES);
+        default:
+            throw Utils.error("unknown position: %s", name);
+        }
+    }
+
+    /** Return the position after N pseudo-random moves from the initial
+     *  position.  Moves that would end the game are avoided where
+     *  possible. */
+    private static Board play(int n) {
+        Board board = new Board();
+        Random random = new Random(SEED);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < n; k += 1) {
+            int count = board.generateMoves(board.turn(), moves);
+            for (int tries = 0; ; tries += 1) {
+                int move = moves[random.nextInt(count)];
+                board.makeMove(move);
+                if (board.winner() == null || tries == count) {
+                    break;
+                }
+                board.undo();
+            }
+        }
+        return board;
+    }
+
+    /** Number of moves to the middlegame and endgame positions. */
+    private static final int MIDDLEGAME_MOVES = 20, ENDGAME_MOVES = 50;
+    /** Seed for choosing moves. */
+    private static final long SEED = 61;
+}
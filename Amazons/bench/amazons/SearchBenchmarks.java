@@ -0,0 +1,114 @@
+package amazons;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of position evaluation and of the AI's fixed-depth
+ *  search, on the positions in Positions.  Each search starts with a
+ *  fresh AI, so its transposition table and move-ordering statistics
+ *  are empty.
+ *  @author Ben Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmarks {
+
+    /** A position and an evaluator to score it with. */
+    @State(Scope.Thread)
+    public static class Scoring {
+        /** The name of the position benchmarked. */
+        @Param({ Positions.OPENING, Positions.MIDDLEGAME,
+                 Positions.ENDGAME })
+        public String position;
+
+        /** The name of the Evaluator used (see Evaluator.create). */
+        @Param({ Evaluator.MOBILITY, Evaluator.TERRITORY })
+        public String evaluator;
+
+        /** Set up the position and evaluator. */
+        @Setup
+        public void setUp() {
+            _board = Positions.get(position);
+            _evaluator = Evaluator.create(evaluator);
+        }
+
+        /** The position scored. */
+        private Board _board;
+        /** The evaluator benchmarked. */
+        private Evaluator _evaluator;
+    }
+
+    /** A position and a fixed-depth AI to search it. */
+    @State(Scope.Thread)
+    public static class Searching {
+        /** The name of the position benchmarked. */
+        @Param({ Positions.OPENING, Positions.MIDDLEGAME,
+                 Positions.ENDGAME })
+        public String position;
+
+        /** The name of the Evaluator used (see Evaluator.create). */
+        @Param({ Evaluator.MOBILITY, Evaluator.TERRITORY })
+        public String evaluator;
+
+        /** The depth of the search, in plies. */
+        @Param({ "1", "2" })
+        public int depth;
+
+        /** Set up the position and the AI template. */
+        @Setup
+        public void setUp() {
+            _board = Positions.get(position);
+            _template = new AI();
+            _template.setDepth(depth);
+            _template.setEvaluator(evaluator);
+            _controller =
+                new Controller(new NullView(), null, new NullReporter(),
+                               new TextPlayer(), _template);
+        }
+
+        /** Give each search a fresh AI, and restore the position. */
+        @Setup(Level.Invocation)
+        public void setUpSearch() {
+            _controller.board().copy(_board);
+            _player = _template.create(_board.turn(), _controller);
+        }
+
+        /** The position searched. */
+        private Board _board;
+        /** Template for the AIs searched with. */
+        private AI _template;
+        /** Controller whose board the AIs search. */
+        private Controller _controller;
+        /** The AI for the next search. */
+        private Player _player;
+    }
+
+    /** Score the position in STATE. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int score(Scoring state) {
+        return state._evaluator.score(state._board);
+    }
+
+    /** Search the position in STATE to the fixed depth and choose a
+     *  move. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String findMove(Searching state) {
+        return state._player.myMove();
+    }
+}